@@ -0,0 +1,12 @@
+package benchmarks;
+
+import commandbased.Subsystem;
+
+/**
+ * A subsystem with no default command.
+ */
+class BenchmarkSubsystem extends Subsystem
+{
+    @Override
+    public void initDefaultCommand () {}
+}
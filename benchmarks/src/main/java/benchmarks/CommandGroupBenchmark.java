@@ -0,0 +1,82 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import commandbased.Command;
+import commandbased.CommandGroup;
+import commandbased.Scheduler;
+
+/**
+ * Measures running a tree of nested command groups from start to finish. Every group has
+ * {@code width} stages, each of which runs a child group and {@code width - 1} leaf commands
+ * in parallel, down to the given depth. Leaves finish after a single execute().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandGroupBenchmark
+{
+    @Param({ "1", "3" })
+    private int depth;
+
+    @Param({ "2", "4" })
+    private int width;
+
+    private Scheduler scheduler;
+    private Command root;
+
+    private static class NestedGroup extends CommandGroup
+    {
+        NestedGroup (int depth, int width)
+        {
+            for (int stage = 0; stage < width; stage++)
+            {
+                if (depth > 1)
+                    addParallel(new NestedGroup(depth - 1, width));
+                for (int i = (depth > 1) ? 1 : 0; i < width; i++)
+                    addParallel(new SpinCommand(0, 1));
+                addSequential(new SpinCommand(0, 1));
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup ()
+    {
+        scheduler = Scheduler.getInstance();
+        root = new NestedGroup(depth, width);
+    }
+
+    /**
+     * Starts the root group and ticks the scheduler until it has finished.
+     * @return the number of ticks taken
+     */
+    @Benchmark
+    public int runToCompletion ()
+    {
+        root.start();
+        int ticks = 0;
+        do
+        {
+            scheduler.run();
+            ticks++;
+        } while (root.isRunning());
+        return ticks;
+    }
+}
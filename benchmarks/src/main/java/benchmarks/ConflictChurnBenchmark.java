@@ -0,0 +1,87 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import commandbased.Scheduler;
+import commandbased.Subsystem;
+
+/**
+ * Measures {@link Scheduler#add(commandbased.Command)} when every added command conflicts with
+ * one already running, so each add interrupts and replaces another command. Commands require
+ * a sliding window of subsystems, so each add interrupts up to {@code overlap} others.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConflictChurnBenchmark
+{
+    @Param({ "8", "64" })
+    private int subsystems;
+
+    @Param({ "1", "4" })
+    private int overlap;
+
+    private Scheduler scheduler;
+    private SpinCommand[] commands;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup ()
+    {
+        scheduler = Scheduler.getInstance();
+        Subsystem[] all = new Subsystem[subsystems];
+        for (int i = 0; i < subsystems; i++)
+            all[i] = new BenchmarkSubsystem();
+
+        // twice as many commands as subsystems, so a command is never re-added while running
+        commands = new SpinCommand[subsystems * 2];
+        for (int i = 0; i < commands.length; i++)
+        {
+            Subsystem[] required = new Subsystem[overlap];
+            for (int j = 0; j < overlap; j++)
+                required[j] = all[(i + j) % subsystems];
+            commands[i] = new SpinCommand(0, 0, required);
+        }
+        for (int i = 0; i < subsystems; i++)
+            scheduler.add(commands[i]);
+        next = subsystems;
+    }
+
+    /**
+     * Adds the next command, interrupting those which share its subsystems.
+     */
+    @Benchmark
+    public void addConflicting ()
+    {
+        scheduler.add(commands[next]);
+        next = (next + 1) % commands.length;
+    }
+
+    /**
+     * Adds the next command and ticks the scheduler, so that interrupted commands are
+     * removed as they would be during a match.
+     */
+    @Benchmark
+    public void addConflictingAndTick ()
+    {
+        scheduler.add(commands[next]);
+        next = (next + 1) % commands.length;
+        scheduler.run();
+    }
+}
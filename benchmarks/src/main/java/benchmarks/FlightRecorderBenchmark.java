@@ -0,0 +1,139 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import util.FlightRecorder;
+
+/**
+ * Measures the cost to the robot loop of recording a whole match (150 s at 50 Hz) of a
+ * four-motor drivetrain, each tick holding four outputs, sixteen encoder edges and a tick with
+ * eight samples: written through the {@link FlightRecorder}'s memory-mapped file, and for
+ * comparison the same bytes written with one file write per tick. Each iteration records one
+ * match into a fresh file, so the cost of touching fresh pages is included; writing the file
+ * out at the end of the match is not.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 20, batchSize = FlightRecorderBenchmark.MATCH_TICKS)
+@Measurement(iterations = 20, batchSize = FlightRecorderBenchmark.MATCH_TICKS)
+@Fork(1)
+public class FlightRecorderBenchmark
+{
+    static final int MATCH_TICKS = 7500;
+    private static final int MOTORS = 4;
+    private static final int EDGES = 16;
+    private static final int SAMPLES = 8;
+
+    private File mapped, streamed;
+    private RandomAccessFile stream;
+    private FileChannel channel;
+    private ByteBuffer tick;
+    private int[] channels;
+    private double[] values;
+    private long ticks;
+
+    @Setup(Level.Trial)
+    public void setup () throws IOException
+    {
+        mapped = File.createTempFile("flight", ".rec");
+        streamed = File.createTempFile("flight", ".bin");
+        stream = new RandomAccessFile(streamed, "rw");
+        channel = stream.getChannel();
+        tick = ByteBuffer.allocateDirect((MOTORS + EDGES + 1 + SAMPLES) * FlightRecorder.RECORD_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        channels = new int[MOTORS];
+        values = new double[SAMPLES];
+        for (int i = 0; i < MOTORS; i++)
+            channels[i] = FlightRecorder.channel("TalonSRX " + i);
+        for (int i = 0; i < SAMPLES; i++)
+        {
+            final int sample = i;
+            FlightRecorder.addSample("Sample " + i, () -> values[sample]);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void startMatch () throws IOException
+    {
+        FlightRecorder.start(mapped.getPath());
+        stream.setLength(0);
+        channel.position(0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void endMatch () throws IOException
+    {
+        FlightRecorder.stop();
+        channel.force(false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown () throws IOException
+    {
+        stream.close();
+        mapped.delete();
+        streamed.delete();
+    }
+
+    /**
+     * Records the tick through the flight recorder.
+     */
+    @Benchmark
+    public void recorded ()
+    {
+        ticks++;
+        for (int i = 0; i < MOTORS; i++)
+            FlightRecorder.recordOutput(channels[i], 0, ticks * 0.001, -1, 0);
+        for (int i = 0; i < EDGES; i++)
+            FlightRecorder.recordEdge(i & 7, (i & 1) != 0, ticks);
+        for (int i = 0; i < SAMPLES; i++)
+            values[i] = ticks + i;
+        FlightRecorder.recordTick(ticks);
+    }
+
+    /**
+     * Encodes the same records into a buffer and writes it to a file.
+     */
+    @Benchmark
+    public void streamed () throws IOException
+    {
+        ticks++;
+        tick.clear();
+        for (int i = 0; i < MOTORS; i++)
+            put(System.nanoTime(), FlightRecorder.Kind.OUTPUT, 0, channels[i], ticks * 0.001);
+        for (int i = 0; i < EDGES; i++)
+            put(ticks, FlightRecorder.Kind.EDGE, (i & 1), i & 7, 0);
+        long now = System.nanoTime();
+        put(now, FlightRecorder.Kind.TICK, 0, 0, ticks);
+        for (int i = 0; i < SAMPLES; i++)
+            put(now, FlightRecorder.Kind.SAMPLE, 0, i, ticks + i);
+        tick.flip();
+        channel.write(tick);
+    }
+
+    private void put (long time, FlightRecorder.Kind kind, int code, int channel, double value)
+    {
+        tick.putLong(time).put((byte) (kind.ordinal() + 1)).put((byte) code).putShort((short) channel).putInt(0)
+                .putDouble(value).putDouble(0);
+    }
+}
@@ -0,0 +1,90 @@
+package benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares reading a full set of PID gains from five boxed maps (the layout
+ * {@link devices.PIDController} used to have) with reading them from an immutable per-slot
+ * profile published through a volatile array (the layout it has now). Run with
+ * {@code -prof gc} to see the allocation difference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GainLookupBenchmark
+{
+    private static final class Gains
+    {
+        final double kF, kP, kI, kD, iZone;
+
+        Gains (double kF, double kP, double kI, double kD, double iZone)
+        {
+            this.kF = kF;
+            this.kP = kP;
+            this.kI = kI;
+            this.kD = kD;
+            this.iZone = iZone;
+        }
+    }
+
+    private Map<Integer, Double> kF, kP, kI, kD, iZone;
+    private volatile Gains[] slots;
+    private int slot;
+    private double error;
+
+    @Setup(Level.Trial)
+    public void setup ()
+    {
+        kF = new HashMap<Integer, Double>();
+        kP = new HashMap<Integer, Double>();
+        kI = new HashMap<Integer, Double>();
+        kD = new HashMap<Integer, Double>();
+        iZone = new HashMap<Integer, Double>();
+        slots = new Gains[4];
+        for (int i = 0; i < 4; i++)
+        {
+            kF.put(i, 0.01 * i);
+            kP.put(i, 0.5 * i);
+            kI.put(i, 0.001 * i);
+            kD.put(i, 2.0 * i);
+            iZone.put(i, 100.0 * i);
+            slots[i] = new Gains(0.01 * i, 0.5 * i, 0.001 * i, 2.0 * i, 100.0 * i);
+        }
+        slot = 1;
+        error = 12.5;
+    }
+
+    @Benchmark
+    public double boxedMaps ()
+    {
+        double e = error;
+        double out = kF.get(slot) * e + kP.get(slot) * e + kI.get(slot) * e + kD.get(slot) * e;
+        return Math.abs(e) < iZone.get(slot) ? out : -out;
+    }
+
+    @Benchmark
+    public double slotArray ()
+    {
+        double e = error;
+        Gains g = slots[slot];
+        double out = g.kF * e + g.kP * e + g.kI * e + g.kD * e;
+        return Math.abs(e) < g.iZone ? out : -out;
+    }
+}
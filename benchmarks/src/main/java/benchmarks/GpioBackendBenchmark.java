@@ -0,0 +1,121 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiPin;
+
+import hal.DigitalInput;
+import hal.DigitalOutput;
+import hal.FakeGpioBackend;
+import hal.GpioBackend;
+import hal.PullResistance;
+import hal.PwmOutput;
+import simulation.Simulation;
+
+/**
+ * Compares the cost of the basic operations of each {@link GpioBackend}: a digital write, a
+ * PWM write, and the round trip from driving an input to its edge listener being called.
+ *
+ * By default the Pi4J backend runs against the simulated GPIO provider, so only the framework's
+ * overhead is measured. To measure real latency on a Raspberry Pi, wire WiringPi pin 3 to pin 2
+ * and run with {@code -p backend=pi4j,pigpio -jvmArgsAppend -Dbenchmark.hardware=true}; the
+ * edge benchmark then drives pin 3 and waits for the edge to arrive on pin 2.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GpioBackendBenchmark
+{
+    private static final int OUTPUT_PIN = 0;
+    private static final int PWM_PIN = 1;
+    private static final int INPUT_PIN = 2;
+    private static final int LOOPBACK_PIN = 3;
+    private static final int PWM_RANGE = 1024;
+
+    @Param({ "pi4j", "fake" })
+    private String backend;
+
+    private GpioBackend gpio;
+    private DigitalOutput output, loopback;
+    private PwmOutput pwm;
+    private DigitalInput input;
+    private volatile boolean seen;
+    private boolean level;
+    private int value;
+
+    @Setup(Level.Trial)
+    public void setup ()
+    {
+        boolean hardware = Boolean.getBoolean("benchmark.hardware");
+        if (!hardware)
+            Simulation.enable();
+        gpio = GpioBackend.forName(backend);
+        output = gpio.provisionDigitalOutput(OUTPUT_PIN);
+        pwm = gpio.provisionPwmOutput(PWM_PIN, 1000, PWM_RANGE);
+        input = gpio.provisionDigitalInput(INPUT_PIN, PullResistance.PULL_DOWN);
+        input.addListener((pin, high, nanos) -> seen = high);
+        if (hardware)
+            loopback = gpio.provisionDigitalOutput(LOOPBACK_PIN);
+    }
+
+    /**
+     * Toggles a digital output.
+     */
+    @Benchmark
+    public void digitalWrite ()
+    {
+        level = !level;
+        output.setState(level);
+    }
+
+    /**
+     * Writes a new duty cycle to a PWM output.
+     */
+    @Benchmark
+    public void pwmWrite ()
+    {
+        value = (value + 1) % PWM_RANGE;
+        pwm.setPwm(value);
+    }
+
+    /**
+     * Toggles the input and waits until its listener has seen the new level.
+     */
+    @Benchmark
+    public void edgeRoundTrip ()
+    {
+        level = !level;
+        drive(level);
+        while (seen != level)
+        {
+            // spin; the listener runs on the backend's event thread
+        }
+    }
+
+    private void drive (boolean high)
+    {
+        if (loopback != null)
+            loopback.setState(high);
+        else if (gpio instanceof FakeGpioBackend)
+            ((FakeGpioBackend) gpio).setInput(INPUT_PIN, high);
+        else
+            Simulation.getProvider().setInput(RaspiPin.getPinByAddress(INPUT_PIN), high ? PinState.HIGH : PinState.LOW);
+    }
+}
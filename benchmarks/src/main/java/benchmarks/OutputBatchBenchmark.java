@@ -0,0 +1,131 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioFactory;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.GpioPinPwmOutput;
+import com.pi4j.io.gpio.RaspiPin;
+
+import devices.DigitalMotor;
+import devices.OutputBatch;
+import simulation.Simulation;
+
+/**
+ * Measures the outputs of a four-motor drivetrain for one tick, driving forward at a varying
+ * speed, as three unbatched Pi4J writes per motor and through the {@link OutputBatch}. Runs on
+ * the simulated GPIO provider, so the difference reflects the writes saved rather than the
+ * full cost of each native call. The number of native writes per tick made through the batch
+ * is printed at the end of each trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputBatchBenchmark
+{
+    private static final int MOTORS = 4;
+
+    /**
+     * Pins provisioned the same way as a DigitalMotor, written directly.
+     */
+    @State(Scope.Thread)
+    public static class Unbatched
+    {
+        private GpioPinDigitalOutput[] forward, backward;
+        private GpioPinPwmOutput[] enable;
+        private long ticks;
+
+        @Setup(Level.Trial)
+        public void setup ()
+        {
+            Simulation.enable();
+            GpioController gpio = GpioFactory.getInstance();
+            forward = new GpioPinDigitalOutput[MOTORS];
+            backward = new GpioPinDigitalOutput[MOTORS];
+            enable = new GpioPinPwmOutput[MOTORS];
+            for (int i = 0; i < MOTORS; i++)
+            {
+                forward[i] = gpio.provisionDigitalOutputPin(RaspiPin.getPinByAddress(3 * i));
+                backward[i] = gpio.provisionDigitalOutputPin(RaspiPin.getPinByAddress(3 * i + 1));
+                enable[i] = gpio.provisionSoftPwmOutputPin(RaspiPin.getPinByAddress(3 * i + 2));
+            }
+        }
+    }
+
+    /**
+     * Motors written through the batch.
+     */
+    @State(Scope.Thread)
+    public static class Batched
+    {
+        @Param({ "true", "false" })
+        private boolean batching;
+
+        private DigitalMotor[] motors;
+        private long ticks;
+        private long writesAtStart;
+
+        @Setup(Level.Trial)
+        public void setup ()
+        {
+            Simulation.enable();
+            motors = new DigitalMotor[MOTORS];
+            for (int i = 0; i < MOTORS; i++)
+                motors[i] = new DigitalMotor(3 * i, 3 * i + 1, 3 * i + 2);
+            OutputBatch.getInstance().setBatching(batching);
+            writesAtStart = OutputBatch.getInstance().getWriteCount();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown ()
+        {
+            if (ticks > 0)
+                System.out.println("\nNative writes per tick: "
+                        + (double) (OutputBatch.getInstance().getWriteCount() - writesAtStart) / ticks);
+        }
+    }
+
+    /**
+     * Writes every pin of every motor directly, as DigitalMotor used to.
+     */
+    @Benchmark
+    public void unbatched (Unbatched state)
+    {
+        float speed = 0.5f + (state.ticks++ % 100) / 1000f;
+        for (int i = 0; i < MOTORS; i++)
+        {
+            state.forward[i].setState(speed > 0);
+            state.backward[i].setState(speed < 0);
+            state.enable[i].setPwm((int) Math.round(Math.abs(1024 * speed)));
+        }
+    }
+
+    /**
+     * Sets every motor through the batch and flushes, as the robot loop does.
+     */
+    @Benchmark
+    public void batched (Batched state)
+    {
+        float speed = 0.5f + (state.ticks++ % 100) / 1000f;
+        for (int i = 0; i < MOTORS; i++)
+            state.motors[i].setValue(speed);
+        OutputBatch.getInstance().flush();
+    }
+}
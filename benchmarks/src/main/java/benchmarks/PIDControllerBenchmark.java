@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import devices.PIDController;
+import util.Clock;
+import util.VirtualClock;
+
+/**
+ * Measures one evaluation of {@link PIDController#getOutput(double, double)}. Time is driven
+ * by a virtual clock advanced by one loop period per call, so the integral and derivative
+ * terms are exercised on every call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PIDControllerBenchmark
+{
+    private static final long PERIOD_NANOS = 20000000;
+
+    private VirtualClock clock;
+    private PIDController pid;
+    private double actual;
+
+    @Setup(Level.Trial)
+    public void setup ()
+    {
+        clock = new VirtualClock();
+        Clock.setInstance(clock);
+        pid = new PIDController(-1, 1);
+        pid.config_kF(0.01, 0, 0);
+        pid.config_kP(0.5, 0, 0);
+        pid.config_kI(0.001, 0, 0);
+        pid.config_kD(2, 0, 0);
+        pid.config_IntegralZone(100, 0, 0);
+        pid.selectProfileSlot(0, 0);
+    }
+
+    /**
+     * One control loop iteration tracking a moving setpoint.
+     * @return the controller output
+     */
+    @Benchmark
+    public double getOutput ()
+    {
+        clock.advance(PERIOD_NANOS);
+        Clock.sampleTick();
+        double output = pid.getOutput(actual, 1000);
+        actual += output * 10;
+        return output;
+    }
+}
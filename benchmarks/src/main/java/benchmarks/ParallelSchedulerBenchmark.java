@@ -0,0 +1,76 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import commandbased.Scheduler;
+
+/**
+ * Measures how a scheduler tick scales with worker threads when commands do real work in
+ * execute(). Compare against the parallelism = 0 row to find the break-even point.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelSchedulerBenchmark
+{
+    @Param({ "16", "64" })
+    private int commands;
+
+    @Param({ "100", "1000" })
+    private long work;
+
+    @Param({ "0", "1", "3" })
+    private int parallelism;
+
+    private Scheduler scheduler;
+    private SpinCommand[] running;
+
+    @Setup(Level.Trial)
+    public void setup ()
+    {
+        scheduler = Scheduler.getInstance();
+        scheduler.setParallelism(parallelism);
+        running = new SpinCommand[commands];
+        for (int i = 0; i < commands; i++)
+        {
+            running[i] = new SpinCommand(work, 0, new BenchmarkSubsystem());
+            running[i].start();
+        }
+        scheduler.run();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown ()
+    {
+        for (SpinCommand c : running)
+            c.cancel();
+        scheduler.run();
+        scheduler.setParallelism(0);
+    }
+
+    /**
+     * A single scheduler tick.
+     */
+    @Benchmark
+    public void tick ()
+    {
+        scheduler.run();
+    }
+}
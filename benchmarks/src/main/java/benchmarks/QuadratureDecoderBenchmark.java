@@ -0,0 +1,144 @@
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import devices.QuadratureDecoder;
+
+/**
+ * Replays a synthetic stream of quadrature edges through a {@link QuadratureDecoder}. The
+ * stream turns the shaft back and forth with occasional reversals, so every transition in
+ * the table is exercised. Results are per edge; the reciprocal of the average time is the
+ * highest edge rate the decoder can sustain.
+ *
+ * A second copy of the stream drops some edges, as a listener falling behind would. Setup
+ * checks that the decoder reports the clean stream without errors and the lossy one with
+ * at least one error and no more than the number of edges dropped.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuadratureDecoderBenchmark
+{
+    private static final int EDGES = 4096;
+    private static final int DROP_ONE_IN = 100;
+
+    private final int[] channels = new int[EDGES];
+    private final boolean[] levels = new boolean[EDGES];
+    private int[] lossyChannels;
+    private boolean[] lossyLevels;
+    private QuadratureDecoder decoder, lossyDecoder;
+
+    @Setup(Level.Trial)
+    public void setup ()
+    {
+        Random random = new Random(42);
+        long count = 0;
+        int direction = 1;
+        for (int i = 0; i < EDGES; i++)
+        {
+            if (random.nextInt(64) == 0)
+                direction = -direction;
+            // forward rotation steps (A, B) through 00, 10, 11, 01; the edge from count to
+            // count + direction toggles A when the step starts on an even phase, else B
+            long from = count, to = count + direction;
+            int phase = (int) Math.floorMod(Math.min(from, to), 4l);
+            int channel = (phase % 2 == 0) ? QuadratureDecoder.CHANNEL_A : QuadratureDecoder.CHANNEL_B;
+            int target = (int) Math.floorMod(to, 4l);
+            boolean a = target == 1 || target == 2, b = target == 2 || target == 3;
+            channels[i] = channel;
+            levels[i] = (channel == QuadratureDecoder.CHANNEL_A) ? a : b;
+            count = to;
+        }
+        lossyChannels = new int[EDGES];
+        lossyLevels = new boolean[EDGES];
+        int kept = 0;
+        for (int i = 0; i < EDGES; i++)
+        {
+            if (random.nextInt(DROP_ONE_IN) == 0)
+                continue;
+            lossyChannels[kept] = channels[i];
+            lossyLevels[kept] = levels[i];
+            kept++;
+        }
+        lossyChannels = Arrays.copyOf(lossyChannels, kept);
+        lossyLevels = Arrays.copyOf(lossyLevels, kept);
+
+        QuadratureDecoder check = new QuadratureDecoder();
+        for (int i = 0; i < EDGES; i++)
+            check.edge(channels[i], levels[i]);
+        if (check.getErrorCount() != 0)
+            throw new IllegalStateException("Clean stream decoded with " + check.getErrorCount() + " errors");
+        check = new QuadratureDecoder();
+        for (int i = 0; i < kept; i++)
+            check.edge(lossyChannels[i], lossyLevels[i]);
+        int dropped = EDGES - kept;
+        if (check.getErrorCount() == 0 || check.getErrorCount() > dropped)
+            throw new IllegalStateException("Lossy stream decoded with " + check.getErrorCount() + " errors after "
+                    + dropped + " dropped edges");
+
+        decoder = new QuadratureDecoder();
+        lossyDecoder = new QuadratureDecoder();
+    }
+
+    /**
+     * Replays the stream on a single thread.
+     */
+    @Benchmark
+    @OperationsPerInvocation(EDGES)
+    public long replay ()
+    {
+        for (int i = 0; i < EDGES; i++)
+            decoder.edge(channels[i], levels[i]);
+        return decoder.getCount();
+    }
+
+    /**
+     * Replays the stream with dropped edges on a single thread, so every missed pair takes
+     * the error path. Results are per replay of the whole stream, since the number of edges
+     * kept is only known at setup.
+     */
+    @Benchmark
+    public long replayLossy ()
+    {
+        for (int i = 0; i < lossyChannels.length; i++)
+            lossyDecoder.edge(lossyChannels[i], lossyLevels[i]);
+        return lossyDecoder.getErrorCount();
+    }
+
+    /**
+     * Replays the stream while another thread reads the count, as a control loop would.
+     */
+    @Benchmark
+    @Group("contended")
+    @OperationsPerInvocation(EDGES)
+    public long replayWhileRead ()
+    {
+        return replay();
+    }
+
+    @Benchmark
+    @Group("contended")
+    public long read ()
+    {
+        return decoder.getCount();
+    }
+}
@@ -0,0 +1,110 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+
+import commandbased.Scheduler;
+import commandbased.Subsystem;
+
+/**
+ * Checks that {@link Scheduler#run()} allocates nothing once warmed up, by reading the bytes
+ * allocated by the calling thread around many ticks. Exits with status 1 if any tick
+ * allocated, so {@code mvn verify} fails.
+ *
+ * Two workloads are checked, both serial so every allocation happens on the measured thread:
+ * <ul>
+ * <li>steady: a dense array of long-running commands, some requiring a subsystem and some
+ * none, which only exercises iteration over the running array</li>
+ * <li>churn: every tick starts a command requiring a window of subsystems, interrupting the
+ * commands which own them; short commands finish and are removed, and each freed subsystem
+ * restarts its default command, which exercises the requirement masks, the removal stack
+ * and compaction</li>
+ * </ul>
+ */
+public class SchedulerAllocationCheck
+{
+    private static final int WARMUP_TICKS = 200000;
+    private static final int MEASURED_TICKS = 100000;
+    private static final int STEADY_COMMANDS = 200;
+    private static final int STEADY_SUBSYSTEMS = 32;
+    private static final int CHURN_SUBSYSTEMS = 16;
+    private static final int CHURN_OVERLAP = 3;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * A subsystem which restarts a long-running command whenever it is freed.
+     */
+    private static class DefaultingSubsystem extends Subsystem
+    {
+        @Override
+        public void initDefaultCommand ()
+        {
+            setDefaultCommand(new SpinCommand(0, 0, this));
+        }
+    }
+
+    public static void main (String[] args)
+    {
+        Scheduler scheduler = Scheduler.getInstance();
+        boolean failed = false;
+
+        SpinCommand[] steady = new SpinCommand[STEADY_COMMANDS];
+        for (int i = 0; i < steady.length; i++)
+        {
+            steady[i] = (i < STEADY_SUBSYSTEMS) ? new SpinCommand(0, 0, new BenchmarkSubsystem())
+                    : new SpinCommand(0, 0);
+            steady[i].start();
+        }
+        failed |= check("steady", () -> scheduler.run());
+        for (SpinCommand c : steady)
+            c.cancel();
+        scheduler.run();
+
+        Subsystem[] all = new Subsystem[CHURN_SUBSYSTEMS];
+        for (int i = 0; i < all.length; i++)
+            all[i] = new DefaultingSubsystem();
+        // enough commands that none is started again while it may still be running
+        SpinCommand[] churn = new SpinCommand[CHURN_SUBSYSTEMS * 4];
+        for (int i = 0; i < churn.length; i++)
+        {
+            Subsystem[] required = new Subsystem[CHURN_OVERLAP];
+            for (int j = 0; j < CHURN_OVERLAP; j++)
+                required[j] = all[(i + j) % all.length];
+            churn[i] = new SpinCommand(0, 1 + i % 3, required);
+        }
+        scheduler.run(); // creates the default commands
+        int[] next = new int[1];
+        failed |= check("churn", () -> {
+            SpinCommand c = churn[next[0]];
+            if (!c.isRunning())
+                c.start();
+            next[0] = (next[0] + 1) % churn.length;
+            scheduler.run();
+        });
+
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Runs a tick until warmed up, then measures the bytes it allocates over many more.
+     * @return true if the tick allocated
+     */
+    private static boolean check (String name, Runnable tick)
+    {
+        long id = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP_TICKS; i++)
+            tick.run();
+        // reading the counter may itself allocate, so measure that first
+        long start = threads.getThreadAllocatedBytes(id);
+        long overhead = threads.getThreadAllocatedBytes(id) - start;
+        start = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < MEASURED_TICKS; i++)
+            tick.run();
+        long allocated = threads.getThreadAllocatedBytes(id) - start - overhead;
+        boolean failed = allocated > 0;
+        System.out.println(String.format("%-8s %d ticks, %d bytes allocated%s", name, MEASURED_TICKS, allocated,
+                failed ? " (FAILED)" : ""));
+        return failed;
+    }
+}
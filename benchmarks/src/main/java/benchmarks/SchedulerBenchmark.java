@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import commandbased.Scheduler;
+
+/**
+ * Measures one call to {@link Scheduler#run()} with a given number of long-running commands,
+ * each requiring one of a fixed set of subsystems, with and without parallel execution.
+ *
+ * Each parameter combination runs in its own fork, so every trial starts with an empty
+ * scheduler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchedulerBenchmark
+{
+    @Param({ "10", "100", "1000" })
+    private int commands;
+
+    @Param({ "0" })
+    private long work;
+
+    @Param({ "0" })
+    private int parallelism;
+
+    private Scheduler scheduler;
+    private SpinCommand[] running;
+
+    @Setup(Level.Trial)
+    public void setup ()
+    {
+        scheduler = Scheduler.getInstance();
+        scheduler.setParallelism(parallelism);
+
+        // commands only conflict if they share a subsystem, so give each its own where possible
+        BenchmarkSubsystem[] subsystems = new BenchmarkSubsystem[Math.min(commands, Scheduler.MAX_SUBSYSTEMS)];
+        for (int i = 0; i < subsystems.length; i++)
+            subsystems[i] = new BenchmarkSubsystem();
+
+        running = new SpinCommand[commands];
+        for (int i = 0; i < commands; i++)
+        {
+            running[i] = (i < subsystems.length) ? new SpinCommand(work, 0, subsystems[i]) : new SpinCommand(work, 0);
+            running[i].start();
+        }
+        scheduler.run();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown ()
+    {
+        for (SpinCommand c : running)
+            c.cancel();
+        scheduler.run();
+        scheduler.setParallelism(0);
+    }
+
+    /**
+     * A single scheduler tick.
+     */
+    @Benchmark
+    public void tick ()
+    {
+        scheduler.run();
+    }
+}
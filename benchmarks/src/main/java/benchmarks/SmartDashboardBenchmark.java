@@ -0,0 +1,89 @@
+package benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import commandbased.SmartDashboard;
+import commandbased.StreamTelemetrySink;
+
+/**
+ * Measures the cost to the calling thread of putting one value to the {@link SmartDashboard}:
+ * formatting and printing a line immediately (as it used to), putting by key, and putting by a
+ * pre-interned key ID. Output is discarded, so the printing case measures formatting and the
+ * stream's locking rather than the console itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmartDashboardBenchmark
+{
+    private static final String KEY = "Drivetrain velocity";
+
+    private PrintStream discard;
+    private int keyId;
+    private double value;
+
+    @Setup(Level.Trial)
+    public void setup ()
+    {
+        OutputStream nowhere = new OutputStream()
+        {
+            @Override
+            public void write (int b)
+            {
+            }
+
+            @Override
+            public void write (byte[] b, int off, int len)
+            {
+            }
+        };
+        discard = new PrintStream(nowhere);
+        SmartDashboard.configureTelemetry(SmartDashboard.Format.BINARY, new StreamTelemetrySink(nowhere),
+                SmartDashboard.DEFAULT_RATE_HZ);
+        keyId = SmartDashboard.getKeyId(KEY);
+    }
+
+    /**
+     * Formats and prints the value on the calling thread.
+     */
+    @Benchmark
+    public void printed ()
+    {
+        discard.println("SD: " + KEY + " " + (value += 0.5));
+    }
+
+    /**
+     * Puts the value by key.
+     */
+    @Benchmark
+    public void byKey ()
+    {
+        SmartDashboard.putNumber(KEY, value += 0.5);
+    }
+
+    /**
+     * Puts the value by key ID.
+     */
+    @Benchmark
+    public void byId ()
+    {
+        SmartDashboard.putNumber(keyId, value += 0.5);
+    }
+}
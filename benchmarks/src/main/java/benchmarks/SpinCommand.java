@@ -0,0 +1,55 @@
+package benchmarks;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import commandbased.Command;
+import commandbased.Subsystem;
+
+/**
+ * A command which runs until cancelled, optionally burning a fixed amount of CPU in every
+ * call to execute(), so that benchmarks measure the scheduler rather than the commands.
+ */
+class SpinCommand extends Command
+{
+    private final long work;
+    private final int runs;
+    private int executions;
+
+    /**
+     * Constructs a new SpinCommand.
+     * @param work the number of Blackhole tokens consumed per execute()
+     * @param runs the number of executions after which the command finishes, or 0 to run
+     * until cancelled
+     * @param requirements the subsystems which the command requires
+     */
+    SpinCommand (long work, int runs, Subsystem... requirements)
+    {
+        this.work = work;
+        this.runs = runs;
+        for (Subsystem s : requirements)
+            requires(s);
+    }
+
+    @Override
+    protected boolean isFinished ()
+    {
+        return runs > 0 && executions >= runs;
+    }
+
+    @Override
+    protected void initialize ()
+    {
+        executions = 0;
+    }
+
+    @Override
+    protected void execute ()
+    {
+        if (work > 0)
+            Blackhole.consumeCPU(work);
+        executions++;
+    }
+
+    @Override
+    protected void end () {}
+}
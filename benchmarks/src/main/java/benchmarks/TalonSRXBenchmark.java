@@ -0,0 +1,70 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import devices.TalonSRX;
+import devices.TalonSRX.ControlMode;
+import devices.TalonSRX.FeedbackDevice;
+import simulation.Simulation;
+import simulation.SimulatedMotor;
+import util.Clock;
+
+/**
+ * Measures the full closed-loop path of a {@link TalonSRX}: reading the encoder, evaluating the
+ * PID loop and writing the outputs to the pins. Runs against the simulated GPIO provider, so
+ * the figures exclude the cost of the native GPIO calls but need no Raspberry Pi.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TalonSRXBenchmark
+{
+    private TalonSRX talon;
+
+    @Setup(Level.Trial)
+    public void setup ()
+    {
+        Simulation.enable();
+        talon = new TalonSRX(2, 0, 1);
+        new SimulatedMotor(0, 1, 2, 4000, 0.1).withEncoder(3, 4);
+        talon.setupEncoder(3, 4);
+        talon.configSelectedFeedbackSensor(FeedbackDevice.MagneticEncoder, 0, 0);
+        talon.config_kP(0.01, 0, 0);
+        talon.config_kD(0.1, 0, 0);
+        talon.selectProfileSlot(0, 0);
+    }
+
+    /**
+     * One closed-loop position update, without advancing the simulation.
+     */
+    @Benchmark
+    public void setPosition ()
+    {
+        Clock.sampleTick();
+        talon.set(ControlMode.Position, 1000);
+    }
+
+    /**
+     * One open-loop update.
+     */
+    @Benchmark
+    public void setPercentOutput ()
+    {
+        talon.set(ControlMode.PercentOutput, 0.5);
+    }
+}
@@ -14,6 +14,34 @@ public abstract class Command {
 	private Set<Subsystem> required;
 	private boolean isInitialized;
 	
+	/**
+	 * One bit per required subsystem, indexed by {@link Subsystem#index}.
+	 */
+	long requirementMask;
+	
+	/**
+	 * The position of this command in the scheduler's running array, or -1 if
+	 * it is not running.
+	 */
+	int schedulerIndex = -1;
+	
+	/**
+	 * Cached result of {@link #isPolled()}, taken when the command is started.
+	 */
+	boolean polled = true;
+	
+	/**
+	 * The group which started this command and should be told when it stops
+	 * running, or null if it was not started by a group.
+	 */
+	CommandGroup group;
+	
+	/**
+	 * The flight recorder channel named after this command's class, or -1 if
+	 * it has not been looked up yet.
+	 */
+	int recorderChannel = -1;
+	
 	/**
 	 * Creates a new command.
 	 */
@@ -33,6 +61,7 @@ public abstract class Command {
 	 */
 	protected void requires(Subsystem s) {
 		required.add(s);
+		requirementMask |= 1l << s.index;
 	}
 	
 	/**
@@ -43,7 +72,7 @@ public abstract class Command {
 	 * @return whether or not the subsystem is required, or false if given null
 	 */
 	public boolean doesRequire(Subsystem s) {
-		return required.contains(s);
+		return s != null && (requirementMask & (1l << s.index)) != 0;
 	}
 	
 	public Set<Subsystem> getRequired() {
@@ -63,6 +92,29 @@ public abstract class Command {
 	 */
 	protected abstract boolean isFinished();
 	
+	/**
+	 * Returns whether the scheduler should call execute() and isFinished()
+	 * every tick. Commands which only finish in response to an {@link Event}
+	 * can return false, in which case they are initialized once and then cost
+	 * nothing per tick until the event ends them.
+	 * 
+	 * @return whether this command is polled every tick
+	 */
+	protected boolean isPolled() {
+		return true;
+	}
+	
+	/**
+	 * Makes this command end peacefully, as if isFinished() had returned true,
+	 * whenever the given event is signaled while it is running.
+	 * 
+	 * @param e
+	 *            the event which finishes this command
+	 */
+	public void finishOn(Event e) {
+		e.finishWhenSignaled(this);
+	}
+	
 	/**
 	 * The initialize method is called the first time this Command is run after
 	 * being started.
@@ -4,13 +4,25 @@ import java.util.ArrayList;
 
 /**
  * Represents a group of commands.
+ * 
+ * Before the group first runs, its stages are compiled into a flat array of
+ * commands and an array of stage boundaries. The scheduler counts each child it
+ * starts for the group, and each child tells the group when it stops running,
+ * so the group knows a stage is over from a counter rather than by checking
+ * every child each tick. A child which was already running when its stage
+ * began is not waited for.
  * @author joel
  */
 public abstract class CommandGroup extends Command {
 	
 	private ArrayList<ArrayList<Command>> commands;
 	
+	private Command[] plan;
+	private int[] stageStarts;
+	private boolean compiled;
+	
 	private int index;
+	private int remaining;
 	
 	/*
 	 * Constructs a new CommandGroup.
@@ -29,6 +41,7 @@ public abstract class CommandGroup extends Command {
 			throw new IllegalStateException("Cannot add commands while running");
 		commands.get(commands.size() - 1).add(c);
 		commands.add(new ArrayList<Command>());
+		compiled = false;
 	}
 	
 	/**
@@ -39,6 +52,54 @@ public abstract class CommandGroup extends Command {
 		if(isRunning())
 			throw new IllegalStateException("Cannot add commands while running");
 		commands.get(commands.size() - 1).add(c);
+		compiled = false;
+	}
+	
+	/**
+	 * Flattens the stages into the plan, leaving out empty stages.
+	 */
+	private void compile() {
+		int stages = 0, size = 0;
+		for(ArrayList<Command> stage : commands)
+			if(!stage.isEmpty()) {
+				stages++;
+				size += stage.size();
+			}
+		Command[] plan = new Command[size];
+		int[] stageStarts = new int[stages + 1];
+		int i = 0, j = 0;
+		for(ArrayList<Command> stage : commands)
+			if(!stage.isEmpty()) {
+				stageStarts[j++] = i;
+				for(Command c : stage)
+					plan[i++] = c;
+			}
+		stageStarts[j] = i;
+		this.plan = plan;
+		this.stageStarts = stageStarts;
+		compiled = true;
+	}
+	
+	/**
+	 * @return the number of non-empty stages in the group
+	 */
+	private int stageCount() {
+		return stageStarts.length - 1;
+	}
+	
+	/**
+	 * Called by the scheduler when it starts a child on behalf of this group.
+	 */
+	void childStarted() {
+		remaining++;
+	}
+	
+	/**
+	 * Called by the scheduler when a child started by this group stops
+	 * running, whether it finished or was interrupted.
+	 */
+	void childEnded() {
+		remaining--;
 	}
 	
 	/*
@@ -48,7 +109,7 @@ public abstract class CommandGroup extends Command {
 	 */
 	@Override
 	protected boolean isFinished() {
-		return index == commands.size();
+		return index >= stageCount();
 	}
 	
 	/*
@@ -58,7 +119,10 @@ public abstract class CommandGroup extends Command {
 	 */
 	@Override
 	protected void initialize() {
+		if(!compiled)
+			compile();
 		index = -1;
+		remaining = 0;
 	}
 	
 	/*
@@ -68,15 +132,8 @@ public abstract class CommandGroup extends Command {
 	 */
 	@Override
 	protected void execute() {
-		boolean done = true;
-		if(index >= 0 && index < commands.size())
-			for(Command c : commands.get(index))
-				if(c.isRunning())
-					done = false;
-		if(done)
-			if(++index >= 0 && index < commands.size())
-				for(Command c : commands.get(index))
-					c.start();
+		if(remaining <= 0 && ++index < stageCount())
+			Scheduler.getInstance().addAll(plan, stageStarts[index], stageStarts[index + 1], this);
 	}
 	
 	/*
@@ -96,9 +153,10 @@ public abstract class CommandGroup extends Command {
 	 */
 	@Override
 	protected void interrupted() {
-		for(Command c : commands.get(index))
-			if(c.isRunning())
-				c.cancel();
+		if(index >= 0 && index < stageCount())
+			for(int i = stageStarts[index]; i < stageStarts[index + 1]; i++)
+				if(plan[i] != null && plan[i].group == this && plan[i].isRunning())
+					plan[i].cancel();
 	}
 	
 }
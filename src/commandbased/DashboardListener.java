@@ -0,0 +1,20 @@
+package commandbased;
+
+/**
+ * Receives the updates made to {@link SmartDashboard} entries by remote readers,
+ * such as a tuning GUI changing a gain. Called on the telemetry thread, so
+ * implementations should return quickly; to act on an update from a command,
+ * signal an {@link Event}.
+ */
+public interface DashboardListener {
+	/**
+	 * Called when a reader changes an entry.
+	 *
+	 * @param key
+	 *            the key of the entry
+	 * @param value
+	 *            the new value: a {@link Double}, {@link Boolean}, {@link String},
+	 *            {@code double[]}, {@code boolean[]} or {@code String[]}
+	 */
+	void valueChanged(String key, Object value);
+}
@@ -0,0 +1,99 @@
+package commandbased;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Represents something that can happen at any moment, such as a sensor crossing
+ * a threshold or a message arriving over the network. Commands can be started,
+ * cancelled or finished when an event is signaled, rather than checking a
+ * condition in {@link Command#isFinished()} every tick.
+ *
+ * An event may be signaled from any thread (for instance, a GPIO listener). The
+ * commands bound to it are acted upon the next time the {@link Scheduler}
+ * processes events: at the start of {@link Scheduler#run()}, or immediately if
+ * the robot loop is waiting for its next tick.
+ *
+ * Signaling an event several times before it is processed has the same effect as
+ * signaling it once.
+ */
+public class Event {
+	private final CopyOnWriteArrayList<Command> toStart;
+	private final CopyOnWriteArrayList<Command> toCancel;
+	private final CopyOnWriteArrayList<Command> toFinish;
+	private final AtomicBoolean pending;
+
+	/**
+	 * The next event in the scheduler's list of signaled events.
+	 */
+	Event next;
+
+	/**
+	 * Creates a new event with no bound commands.
+	 */
+	public Event() {
+		toStart = new CopyOnWriteArrayList<Command>();
+		toCancel = new CopyOnWriteArrayList<Command>();
+		toFinish = new CopyOnWriteArrayList<Command>();
+		pending = new AtomicBoolean();
+	}
+
+	/**
+	 * Signals that the event has occurred. Safe to call from any thread; does
+	 * not block or allocate.
+	 */
+	public void signal() {
+		if(pending.compareAndSet(false, true))
+			Scheduler.getInstance().signal(this);
+	}
+
+	/**
+	 * Starts the given command whenever this event is signaled.
+	 *
+	 * @param c
+	 *            the command to start
+	 */
+	public void whenSignaled(Command c) {
+		toStart.add(c);
+	}
+
+	/**
+	 * Cancels the given command whenever this event is signaled while it is
+	 * running.
+	 *
+	 * @param c
+	 *            the command to cancel
+	 */
+	public void cancelWhenSignaled(Command c) {
+		toCancel.add(c);
+	}
+
+	/**
+	 * Ends the given command peacefully whenever this event is signaled while
+	 * it is running.
+	 *
+	 * @param c
+	 *            the command to finish
+	 * @see Command#finishOn(Event)
+	 */
+	void finishWhenSignaled(Command c) {
+		toFinish.add(c);
+	}
+
+	/**
+	 * Acts on every bound command. Called on the scheduler thread.
+	 */
+	void fire() {
+		pending.set(false);
+		Scheduler sch = Scheduler.getInstance();
+		for(Command c : toFinish)
+			if(c.isRunning())
+				sch.remove(c);
+		for(Command c : toCancel)
+			if(c.isRunning())
+				c.cancel();
+		for(Command c : toStart)
+			if(!c.isRunning())
+				c.start();
+	}
+}
@@ -0,0 +1,133 @@
+package commandbased;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A fixed pool of worker threads used by the {@link Scheduler} to run commands
+ * on several cores at once. Each call to {@link #runAll(int)} hands out the
+ * slots [0, count) to the workers and the calling thread, and returns only once
+ * every slot has been run, so the end of each call acts as a barrier.
+ *
+ * Workers park between calls, and handing out work only touches preallocated
+ * state, so a call does not allocate any memory.
+ */
+class ParallelCommandExecutor {
+	/**
+	 * The work performed for each slot.
+	 */
+	interface Task {
+		void run(int slot);
+	}
+
+	private final Task task;
+	private final Thread[] workers;
+	private final AtomicInteger cursor;
+	private final AtomicInteger remaining;
+	private final AtomicReference<Throwable> failure;
+	private volatile int count;
+	private volatile long generation;
+	private volatile boolean shutdown;
+	private volatile Thread caller;
+
+	/**
+	 * Constructs a new executor and starts its worker threads.
+	 *
+	 * @param task
+	 *            the work to perform for each slot
+	 * @param threads
+	 *            the number of worker threads, not counting the calling
+	 *            thread which also takes part in every call
+	 */
+	ParallelCommandExecutor(Task task, int threads) {
+		this.task = task;
+		this.cursor = new AtomicInteger();
+		this.remaining = new AtomicInteger();
+		this.failure = new AtomicReference<>();
+		this.workers = new Thread[threads];
+		for(int i = 0; i < threads; i++) {
+			workers[i] = new Thread(this::work, "scheduler-worker-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Runs the task for every slot in [0, count), blocking until all have
+	 * completed. Everything done by the workers happens-before this method
+	 * returns.
+	 *
+	 * If the task throws on any thread, the call still waits for every worker
+	 * to finish, and then rethrows the first failure on the calling thread.
+	 * The workers survive the failure and take part in later calls.
+	 *
+	 * @param count
+	 *            the number of slots
+	 */
+	void runAll(int count) {
+		caller = Thread.currentThread();
+		this.count = count;
+		cursor.set(0);
+		remaining.set(workers.length);
+		generation++;
+		for(Thread t : workers)
+			LockSupport.unpark(t);
+		try {
+			drain();
+		} catch(Throwable t) {
+			failure.compareAndSet(null, t);
+		} finally {
+			while(remaining.get() > 0)
+				LockSupport.park(this);
+		}
+		Throwable t = failure.getAndSet(null);
+		if(t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if(t instanceof Error)
+			throw (Error) t;
+		if(t != null)
+			throw new RuntimeException(t);
+	}
+
+	/**
+	 * Stops every worker thread once it has finished its current call.
+	 */
+	void shutdown() {
+		shutdown = true;
+		for(Thread t : workers)
+			LockSupport.unpark(t);
+	}
+
+	/**
+	 * @return the number of worker threads
+	 */
+	int getThreadCount() {
+		return workers.length;
+	}
+
+	private void drain() {
+		int n = count;
+		for(int i = cursor.getAndIncrement(); i < n; i = cursor.getAndIncrement())
+			task.run(i);
+	}
+
+	private void work() {
+		long seen = 0;
+		while(!shutdown) {
+			if(generation == seen) {
+				LockSupport.park(this);
+				continue;
+			}
+			seen = generation;
+			try {
+				drain();
+			} catch(Throwable t) {
+				failure.compareAndSet(null, t);
+			} finally {
+				if(remaining.decrementAndGet() == 0)
+					LockSupport.unpark(caller);
+			}
+		}
+	}
+}
@@ -2,6 +2,11 @@
 package commandbased;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import util.FlightRecorder;
+import util.Log;
 
 /**
  * @author Finn Frankis
@@ -12,22 +17,63 @@ import java.util.*;
  *          components from running. Therefore errors are frequently just
  *          printed rather than thrown. To force better practices upon the
  *          students this style could be reversed.
+ * 
+ *          Running commands are kept in a dense array, and each subsystem is
+ *          given a bit in a requirement mask, so that scheduling a tick does not
+ *          allocate any memory once the arrays have grown to fit the robot.
  */
 public class Scheduler {
+	private static final int INITIAL_CAPACITY = 16;
+	
+	/**
+	 * The maximum number of subsystems which can be constructed, one per bit
+	 * of a command's requirement mask. Subsystems are never unregistered, so
+	 * this bounds every subsystem constructed while the program runs;
+	 * constructing one more throws an {@link IllegalStateException}.
+	 */
+	public static final int MAX_SUBSYSTEMS = Long.SIZE;
+	
 	private static Scheduler sch;
-	private Set<Command> runningCommands;
+	private Command[] running;
+	private int runningCount;
+	private int removedCount;
+	private boolean iterating;
 	private List<Subsystem> subsystems;
-	private Stack<Command> toRemove;
+	private Command[] owners;
+	private Command[] toRemove;
+	private int toRemoveCount;
+	private Command[] batch;
+	private SchedulerProfiler profiler;
+	
+	private ParallelCommandExecutor executor;
+	private boolean[] finished;
+	private int[] parallelSlots;
+	private SchedulerProfiler parallelProfiler;
+	private volatile boolean parallelPhase;
+	private ArrayList<ArrayList<Runnable>> slotDeferred;
+	private final ThreadLocal<int[]> currentSlot;
+	private Queue<Runnable> deferred;
+	
+	private final AtomicReference<Event> signaled;
+	private volatile Runnable wakeHook;
 	
 	/**
-	 * Creates a new scheduler, with the internal collection as an identity set
-	 * wrapped around an IdentityHashMap. This allows for multiple similar
-	 * commands to run and count as different.
+	 * Creates a new scheduler. Running commands are tracked by identity
+	 * rather than equality, which allows for multiple similar commands to run
+	 * and count as different.
 	 */
 	private Scheduler() {
-		runningCommands = Collections.newSetFromMap(new IdentityHashMap<>());
+		running = new Command[INITIAL_CAPACITY];
 		subsystems = new ArrayList<Subsystem>();
-		toRemove = new Stack<Command>();
+		owners = new Command[MAX_SUBSYSTEMS];
+		toRemove = new Command[INITIAL_CAPACITY];
+		batch = new Command[INITIAL_CAPACITY];
+		finished = new boolean[INITIAL_CAPACITY];
+		parallelSlots = new int[INITIAL_CAPACITY];
+		slotDeferred = new ArrayList<ArrayList<Runnable>>();
+		currentSlot = ThreadLocal.withInitial(() -> new int[] { -1 });
+		deferred = new ConcurrentLinkedQueue<Runnable>();
+		signaled = new AtomicReference<Event>();
 	}
 	
 	/**
@@ -46,19 +92,118 @@ public class Scheduler {
 	 * @param c
 	 *            the command to run
 	 */
-	public void add(Command c) {
-		if(c == null)
-			new IllegalArgumentException("Cannot start a null command").printStackTrace();
-		else if(!runningCommands.add(c))
-			new IllegalArgumentException("Command " + c.getClass().getSimpleName() + " is already running")
-					.printStackTrace();
+	public void add(final Command c) {
+		if(mustDefer())
+			defer(() -> add(c));
+		else if(c == null)
+			Log.error(this, "Cannot start a null command", new IllegalArgumentException());
+		else if(c.schedulerIndex >= 0)
+			Log.error(c, "Cannot start a command which is already running", new IllegalArgumentException());
 		else {
-			for(Command o : runningCommands)
-				if(c != o && sharedSubsystem(c, o))
-					toRemove.push(o);
-			while(!toRemove.isEmpty())
-				interrupt(toRemove.pop(), c);
+			int base = toRemoveCount;
+			pushOwners(c.requirementMask);
+			insert(c);
+			while(toRemoveCount > base)
+				interrupt(popRemoval(), c.requirementMask);
+		}
+	}
+	
+	/**
+	 * Starts a batch of commands running, stopping any running commands that
+	 * they would conflict with. Conflicts are resolved in a single pass over
+	 * the combined requirements of the batch, so this is cheaper than calling
+	 * {@link #add(Command)} for each command. If two commands in the batch
+	 * conflict with each other, the later one wins, as it would if they were
+	 * added one at a time.
+	 * 
+	 * @param commands
+	 *            the commands to run
+	 */
+	public void addAll(Command... commands) {
+		addAll(commands, 0, commands.length);
+	}
+	
+	/**
+	 * Starts a batch of commands running, stopping any running commands that
+	 * they would conflict with.
+	 * 
+	 * @param commands
+	 *            the commands to run
+	 * @see #addAll(Command...)
+	 */
+	public void addAll(List<? extends Command> commands) {
+		int n = commands.size();
+		if(batch.length < n)
+			batch = new Command[Math.max(n, batch.length * 2)];
+		for(int i = 0; i < n; i++)
+			batch[i] = commands.get(i);
+		addAll(batch, 0, n);
+		for(int i = 0; i < n; i++)
+			batch[i] = null;
+	}
+	
+	/**
+	 * Starts a range of an array of commands running, stopping any running
+	 * commands that they would conflict with.
+	 * 
+	 * @param commands
+	 *            the array holding the commands to run
+	 * @param from
+	 *            the index of the first command to run
+	 * @param to
+	 *            one past the index of the last command to run
+	 * @see #addAll(Command...)
+	 */
+	public void addAll(Command[] commands, int from, int to) {
+		addAll(commands, from, to, null);
+	}
+	
+	/**
+	 * Starts a range of an array of commands running on behalf of a group. The
+	 * group is told of each command actually started which does not already
+	 * belong to another group, and becomes its owner; commands already running
+	 * and repeats within the range are left out.
+	 * 
+	 * @param commands
+	 *            the array holding the commands to run
+	 * @param from
+	 *            the index of the first command to run
+	 * @param to
+	 *            one past the index of the last command to run
+	 * @param group
+	 *            the group starting the commands, or null for none
+	 */
+	void addAll(Command[] commands, int from, int to, final CommandGroup group) {
+		if(mustDefer()) {
+			final Command[] copy = Arrays.copyOfRange(commands, from, to);
+			defer(() -> addAll(copy, 0, copy.length, group));
+			return;
 		}
+		long union = 0;
+		for(int i = from; i < to; i++) {
+			Command c = commands[i];
+			if(c == null)
+				Log.error(this, "Cannot start a null command", new IllegalArgumentException());
+			else if(c.schedulerIndex >= 0)
+				Log.error(c, "Cannot start a command which is already running", new IllegalArgumentException());
+			else
+				union |= c.requirementMask;
+		}
+		int base = toRemoveCount;
+		pushOwners(union); // clears their ownership, so only batch members are found below
+		for(int i = from; i < to; i++) {
+			Command c = commands[i];
+			if(c != null && c.schedulerIndex < 0) {
+				pushOwners(c.requirementMask); // earlier members of this batch
+				insert(c);
+				if(group != null && c.group == null) {
+					c.group = group;
+					group.childStarted();
+				}
+			}
+		}
+		while(toRemoveCount > base)
+			interrupt(popRemoval(), union);
 	}
 	
 	/**
@@ -68,22 +213,28 @@ public class Scheduler {
 	 * @param c
 	 *            the command to stop
 	 */
-	public void remove(Command c) {
-		if(c == null)
-			new IllegalArgumentException("Cannot stop a null command").printStackTrace();
-		else if(!runningCommands.remove(c))
-			new IllegalArgumentException("Command " + c.getClass().getSimpleName() + " is not running")
-					.printStackTrace();
+	public void remove(final Command c) {
+		if(mustDefer())
+			defer(() -> remove(c));
+		else if(c == null)
+			Log.error(this, "Cannot stop a null command", new IllegalArgumentException());
+		else if(!release(c))
+			Log.error(c, "Cannot stop a command which is not running", new IllegalArgumentException());
 		else {
 			try {
+				long start = profiler != null ? System.nanoTime() : 0;
 				c.end();
+				if(profiler != null)
+					profiler.record(c, SchedulerProfiler.END, System.nanoTime() - start);
 			} catch(Exception e) {
-				System.err.println("Error ending command " + c.getClass().getSimpleName());
-				e.printStackTrace();
+				Log.error(c, "Error ending command", e);
 			}
-			for(Subsystem s : c.getRequired())
+			record(c, FlightRecorder.ENDED);
+			for(long mask = c.requirementMask; mask != 0; mask &= mask - 1) {
+				Subsystem s = subsystems.get(Long.numberOfTrailingZeros(mask));
 				if(s.getDefaultCommand() != null)
 					add(s.getDefaultCommand());
+			}
 		}
 	}
 	
@@ -94,26 +245,59 @@ public class Scheduler {
 	 * @param c
 	 *            the command to stop
 	 */
-	public void interrupt(Command c, Command cause) {
+	public void interrupt(final Command c, Command cause) {
+		final long claimed = cause == null ? 0 : cause.requirementMask;
+		if(mustDefer())
+			defer(() -> interrupt(c, claimed));
+		else
+			interrupt(c, claimed);
+	}
+	
+	/**
+	 * Stops a command from running (interrupt), restarting all default commands
+	 * from subsystems used that aren't claimed by the interruption
+	 * 
+	 * @param c
+	 *            the command to stop
+	 * @param claimed
+	 *            the requirement mask of whatever caused the interruption
+	 */
+	private void interrupt(Command c, long claimed) {
 		if(c == null)
-			new IllegalArgumentException("Cannot stop a null command").printStackTrace();
-		else if(!runningCommands.remove(c))
-			new IllegalArgumentException("Command " + c.getClass().getSimpleName() + " is not running")
-					.printStackTrace();
+			Log.error(this, "Cannot stop a null command", new IllegalArgumentException());
+		else if(!release(c))
+			Log.error(c, "Cannot stop a command which is not running", new IllegalArgumentException());
 		else {
 			try {
+				long start = profiler != null ? System.nanoTime() : 0;
 				c.interrupted();
+				if(profiler != null)
+					profiler.record(c, SchedulerProfiler.END, System.nanoTime() - start);
 			} catch(Exception e) {
-				System.err.println("Error ending command " + c.getClass().getSimpleName());
-				e.printStackTrace();
+				Log.error(c, "Error ending command", e);
+			}
+			record(c, FlightRecorder.INTERRUPTED);
+			for(long mask = c.requirementMask; mask != 0; mask &= mask - 1) {
+				Subsystem s = subsystems.get(Long.numberOfTrailingZeros(mask));
+				Command d = s.getDefaultCommand();
+				if(d != null && (claimed & d.requirementMask) == 0)
+					add(d);
 			}
-			for(Subsystem s : c.getRequired())
-				if(s.getDefaultCommand() != null)
-					if(cause == null || !sharedSubsystem(cause, s.getDefaultCommand()))
-						add(s.getDefaultCommand());
 		}
 	}
 	
+	/**
+	 * Gets the command currently using a subsystem.
+	 * 
+	 * @param s
+	 *            the subsystem
+	 * @return the running command which requires the subsystem, or null if
+	 *         there is none
+	 */
+	public Command getOwner(Subsystem s) {
+		return owners[s.index];
+	}
+	
 	/**
 	 * Checks if a command is running
 	 * 
@@ -122,41 +306,293 @@ public class Scheduler {
 	 * @return whether that command is contained in the set of running commands
 	 */
 	public boolean isRunning(Command c) {
-		return runningCommands.contains(c);
+		return c != null && c.schedulerIndex >= 0;
 	}
 	
 	/**
 	 * Executes each command currently running once, then removes them if they
 	 * have finished.
 	 * 
-	 * A single subsystem will never be executed more than once in a call of run
+	 * A single subsystem will never be executed more than once in a call of run.
+	 * Commands started during the call will first be executed on the next call.
+	 * 
+	 * If parallel execution is enabled, commands which require no subsystems
+	 * (such as command groups) are first run one at a time on the calling
+	 * thread. Every other running command is then run on the worker pool: since
+	 * no two running commands share a subsystem, each one is independent of the
+	 * others. Finished commands are ended on the calling thread, in the same
+	 * order as they would be in serial mode.
 	 */
 	public void run() {
-		for(Command c : runningCommands) {
-			try {
-			    if (!c.isInitialized())
-			    {
-			        try { c.initialize(); c.setInitialized(true);}
-			        catch(Exception e) {
-		                System.err.println("Error initializing command " + c.getClass().getSimpleName());
-		                e.printStackTrace();
-		            }
-			    }
-				c.execute();
-				if(c.isFinished())
-					toRemove.push(c);
-			} catch(Exception e) {
-				System.err.println("Error running command " + c.getClass().getSimpleName());
-				e.printStackTrace();
+		SchedulerProfiler profiler = this.profiler;
+		long tickStart = profiler != null ? System.nanoTime() : 0;
+		processEvents();
+		int count = runningCount;
+		iterating = true;
+		try {
+			if(executor == null) {
+				for(int i = 0; i < count; i++) {
+					Command c = running[i];
+					if(c != null && (c.polled || !c.isInitialized()) && step(c, profiler))
+						pushRemoval(c);
+				}
+			}
+			else
+				runParallel(count, profiler);
+		} finally {
+			iterating = false;
+			
+			for (int i = 0; i < subsystems.size(); i++) {
+			    Subsystem s = subsystems.get(i);
+			    if (s.getDefaultCommand() == null)
+			        s.initDefaultCommand();
+			}
+			while(toRemoveCount > 0) {
+				Command c = popRemoval();
+				if(isRunning(c)) // may already have been interrupted by a later command this tick
+					remove(c);
+			}
+			compact();
+		}
+		if(profiler != null)
+			profiler.recordTick(System.nanoTime() - tickStart);
+	}
+	
+	/**
+	 * Initializes a command if necessary, then executes it once.
+	 * 
+	 * @param c
+	 *            the command to run
+	 * @param profiler
+	 *            the profiler to record into, or null if profiling is disabled
+	 * @return whether the command has finished
+	 */
+	private boolean step(Command c, SchedulerProfiler profiler) {
+		SchedulerProfiler.CommandProfile p = profiler != null ? profiler.getProfile(c) : null;
+		try {
+		    if (!c.isInitialized())
+		    {
+		        try {
+		            long start = p != null ? System.nanoTime() : 0;
+		            c.initialize();
+		            c.setInitialized(true);
+		            if (p != null)
+		                p.record(SchedulerProfiler.INITIALIZE, System.nanoTime() - start);
+		        }
+		        catch(Exception e) {
+	                Log.error(c, "Error initializing command", e);
+	            }
+		    }
+		    if (!c.polled)
+		        return false;
+		    if (p == null) {
+		        c.execute();
+		        return c.isFinished();
+		    }
+		    long start = System.nanoTime();
+		    c.execute();
+		    long executed = System.nanoTime();
+		    boolean finished = c.isFinished();
+		    long checked = System.nanoTime();
+		    p.record(SchedulerProfiler.EXECUTE, executed - start);
+		    p.record(SchedulerProfiler.IS_FINISHED, checked - executed);
+		    return finished;
+		} catch(Exception e) {
+			Log.error(c, "Error running command", e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Runs the first count slots of the running array using the worker pool.
+	 */
+	private void runParallel(int count, SchedulerProfiler profiler) {
+		if(finished.length < count)
+			finished = new boolean[running.length];
+		if(parallelSlots.length < count)
+			parallelSlots = new int[running.length];
+		
+		int parallelCount = 0;
+		for(int i = 0; i < count; i++) {
+			Command c = running[i];
+			if(c == null || (!c.polled && c.isInitialized()))
+				finished[i] = false;
+			else if(c.requirementMask == 0)
+				finished[i] = step(c, profiler);
+			else {
+				if(profiler != null)
+					profiler.getProfile(c); // create on this thread; workers only read
+				finished[i] = false; // in case the slot is never run
+				parallelSlots[parallelCount++] = i;
 			}
 		}
+		while(slotDeferred.size() < parallelCount)
+			slotDeferred.add(new ArrayList<Runnable>());
 		
-		for (Subsystem s : subsystems) { 
-		    if (s.getDefaultCommand() == null)
-		        s.initDefaultCommand();
+		parallelProfiler = profiler;
+		parallelPhase = true;
+		try {
+			executor.runAll(parallelCount);
+		} finally {
+			parallelPhase = false;
+			
+			// slots are in start order, so conflicts between them resolve the same way every tick
+			for(int n = 0; n < parallelCount; n++) {
+				ArrayList<Runnable> ops = slotDeferred.get(n);
+				for(int j = 0; j < ops.size(); j++)
+					ops.get(j).run();
+				ops.clear();
+			}
+			Runnable op;
+			while((op = deferred.poll()) != null)
+				op.run();
+			for(int i = 0; i < count; i++)
+				if(finished[i])
+					pushRemoval(running[i]);
+		}
+	}
+	
+	/**
+	 * Runs the command in one slot of the parallel phase. Called on a worker
+	 * thread or on the scheduler thread.
+	 */
+	private void runSlot(int n) {
+		int i = parallelSlots[n];
+		int[] slot = currentSlot.get();
+		slot[0] = n;
+		try {
+			finished[i] = step(running[i], parallelProfiler);
+		} finally {
+			slot[0] = -1;
 		}
-		while(!toRemove.isEmpty())
-			remove(toRemove.pop());
+	}
+	
+	/**
+	 * Postpones a change to the running commands until the parallel phase
+	 * ends. Changes requested by a command are kept with its slot, and applied
+	 * in slot order; changes from any other thread are applied after those.
+	 */
+	private void defer(Runnable op) {
+		int slot = currentSlot.get()[0];
+		if(slot >= 0)
+			slotDeferred.get(slot).add(op);
+		else
+			deferred.add(op);
+	}
+	
+	/**
+	 * Determines whether a change to the running commands must be postponed
+	 * because it was requested by a command during the parallel phase.
+	 */
+	private boolean mustDefer() {
+		return parallelPhase;
+	}
+	
+	/**
+	 * Enables parallel execution of commands with disjoint requirements on a
+	 * fixed pool of worker threads, replacing any existing pool.
+	 * 
+	 * Commands run in parallel which start, cancel or otherwise change the
+	 * running commands have those changes applied on the scheduler thread once
+	 * every worker has finished the tick. Changes are applied in the order the
+	 * requesting commands were started, and in the order each command
+	 * requested them, so which command interrupts which does not depend on
+	 * how the workers were scheduled.
+	 * 
+	 * @param threads
+	 *            the number of worker threads, in addition to the thread
+	 *            calling {@link #run()}; 0 returns to serial execution
+	 */
+	public void setParallelism(int threads) {
+		if(executor != null)
+			executor.shutdown();
+		executor = threads > 0 ? new ParallelCommandExecutor(this::runSlot, threads) : null;
+	}
+	
+	/**
+	 * @return the number of worker threads used for parallel execution, or 0
+	 *         if commands are run serially
+	 */
+	public int getParallelism() {
+		return executor == null ? 0 : executor.getThreadCount();
+	}
+	
+	/**
+	 * Queues a signaled event to be processed on the scheduler thread, then
+	 * wakes whatever is driving the scheduler. Does not block or allocate.
+	 * 
+	 * @param e
+	 *            the event which was signaled
+	 */
+	void signal(Event e) {
+		Event head;
+		do {
+			head = signaled.get();
+			e.next = head;
+		} while(!signaled.compareAndSet(head, e));
+		Runnable hook = wakeHook;
+		if(hook != null)
+			hook.run();
+	}
+	
+	/**
+	 * Acts on every event signaled since the last call, in the order they were
+	 * signaled. Must be called on the thread which calls {@link #run()}; it is
+	 * called automatically at the start of every run().
+	 */
+	public void processEvents() {
+		Event e = signaled.getAndSet(null);
+		Event ordered = null;
+		while(e != null) { // reverse into signal order
+			Event next = e.next;
+			e.next = ordered;
+			ordered = e;
+			e = next;
+		}
+		while(ordered != null) {
+			Event next = ordered.next;
+			ordered.next = null;
+			ordered.fire();
+			ordered = next;
+		}
+	}
+	
+	/**
+	 * Sets the action taken whenever an event is signaled, which should cause
+	 * {@link #processEvents()} to be called on the scheduler thread as soon as
+	 * possible. The action may be run on any thread.
+	 * 
+	 * @param hook
+	 *            the action, or null for events to wait until the next run()
+	 */
+	public void setWakeHook(Runnable hook) {
+		wakeHook = hook;
+	}
+	
+	/**
+	 * Turns on latency profiling of every command run by the scheduler. Has no
+	 * effect if profiling is already enabled.
+	 * 
+	 * @return the profiler recording the latencies
+	 */
+	public SchedulerProfiler enableProfiling() {
+		if(profiler == null)
+			profiler = new SchedulerProfiler();
+		return profiler;
+	}
+	
+	/**
+	 * Turns off latency profiling, discarding everything recorded so far.
+	 */
+	public void disableProfiling() {
+		profiler = null;
+	}
+	
+	/**
+	 * @return the active profiler, or null if profiling is disabled
+	 */
+	public SchedulerProfiler getProfiler() {
+		return profiler;
 	}
 	
 	/**
@@ -170,13 +606,140 @@ public class Scheduler {
 	 * @return whether they have any shared subsystems
 	 */
 	public static boolean sharedSubsystem(Command c, Command o) {
-		for(Subsystem s : c.getRequired())
-			if(o.doesRequire(s))
-				return true;
-		return false;
+		return (c.requirementMask & o.requirementMask) != 0;
 	}
 	
+	/**
+	 * Registers a subsystem, giving it the next free bit of the requirement
+	 * mask.
+	 * 
+	 * @param s
+	 *            the subsystem being constructed
+	 * @throws IllegalStateException
+	 *             if {@link #MAX_SUBSYSTEMS} subsystems have already been
+	 *             constructed
+	 */
 	protected void addSubsystem (Subsystem s) {
-	    
+	    if (subsystems.size() >= MAX_SUBSYSTEMS)
+	        throw new IllegalStateException("Cannot construct more than " + MAX_SUBSYSTEMS + " subsystems");
+	    s.index = subsystems.size();
+	    subsystems.add(s);
+	}
+	
+	/**
+	 * Appends a command to the running array, growing the array only if it has
+	 * no free slots even after compaction, and marks it as the owner of every
+	 * subsystem it requires.
+	 */
+	private void insert(Command c) {
+		if(runningCount == running.length) {
+			if(!iterating)
+				compact();
+			if(runningCount == running.length)
+				running = Arrays.copyOf(running, running.length * 2);
+		}
+		c.schedulerIndex = runningCount;
+		c.setInitialized(false);
+		c.polled = c.isPolled();
+		running[runningCount++] = c;
+		record(c, FlightRecorder.STARTED);
+		for(long mask = c.requirementMask; mask != 0; mask &= mask - 1)
+			owners[Long.numberOfTrailingZeros(mask)] = c;
+	}
+	
+	/**
+	 * Records a command event if a flight recording is in progress.
+	 */
+	private static void record(Command c, int event) {
+		if(!FlightRecorder.isRecording())
+			return;
+		if(c.recorderChannel < 0)
+			c.recorderChannel = FlightRecorder.channel(c.getClass().getName());
+		FlightRecorder.recordCommand(c.recorderChannel, event);
+	}
+	
+	/**
+	 * Clears the slot of a running command. The slot is reclaimed the next
+	 * time the array is compacted.
+	 * 
+	 * @return whether the command was running
+	 */
+	private boolean release(Command c) {
+		int i = c.schedulerIndex;
+		if(i < 0)
+			return false;
+		running[i] = null;
+		c.schedulerIndex = -1;
+		removedCount++;
+		for(long mask = c.requirementMask; mask != 0; mask &= mask - 1) {
+			int bit = Long.numberOfTrailingZeros(mask);
+			if(owners[bit] == c)
+				owners[bit] = null;
+		}
+		CommandGroup g = c.group;
+		if(g != null) {
+			c.group = null;
+			g.childEnded();
+		}
+		return true;
+	}
+	
+	/**
+	 * Pushes every running command which owns a subsystem in the given mask
+	 * onto the removal stack, once each. A pushed command is cleared as the
+	 * owner of every subsystem it requires, so a later call cannot push it
+	 * again before it is interrupted.
+	 * 
+	 * @param mask
+	 *            the requirement mask to check
+	 */
+	private void pushOwners(long mask) {
+		while(mask != 0) {
+			Command o = owners[Long.numberOfTrailingZeros(mask)];
+			if(o != null) {
+				pushRemoval(o);
+				for(long m = o.requirementMask; m != 0; m &= m - 1) {
+					int bit = Long.numberOfTrailingZeros(m);
+					if(owners[bit] == o)
+						owners[bit] = null;
+				}
+				mask &= ~o.requirementMask;
+			}
+			else
+				mask &= mask - 1;
+		}
+	}
+	
+	/**
+	 * Closes the gaps left by removed commands, preserving the order in which
+	 * the remaining commands were started.
+	 */
+	private void compact() {
+		if(removedCount == 0)
+			return;
+		int j = 0;
+		for(int i = 0; i < runningCount; i++) {
+			Command c = running[i];
+			if(c != null) {
+				c.schedulerIndex = j;
+				running[j++] = c;
+			}
+		}
+		for(int i = j; i < runningCount; i++)
+			running[i] = null;
+		runningCount = j;
+		removedCount = 0;
+	}
+	
+	private void pushRemoval(Command c) {
+		if(toRemoveCount == toRemove.length)
+			toRemove = Arrays.copyOf(toRemove, toRemove.length * 2);
+		toRemove[toRemoveCount++] = c;
+	}
+	
+	private Command popRemoval() {
+		Command c = toRemove[--toRemoveCount];
+		toRemove[toRemoveCount] = null;
+		return c;
 	}
 }
@@ -0,0 +1,253 @@
+package commandbased;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import util.LatencyHistogram;
+
+/**
+ * Records how long each running command spends in each phase of its lifecycle, as well
+ * as how long each full call to {@link Scheduler#run()} takes.
+ *
+ * Commands are profiled by class, so every instance of a command shares one set of
+ * histograms and a robot which creates fresh commands each match does not grow the
+ * profiler. Histograms are allocated the first time a class is seen; after that,
+ * recording a latency never allocates, so the profiler can be left enabled during matches.
+ */
+public class SchedulerProfiler {
+	/**
+	 * Index of the histogram timing {@link Command#initialize()}.
+	 */
+	public static final int INITIALIZE = 0;
+
+	/**
+	 * Index of the histogram timing {@link Command#execute()}.
+	 */
+	public static final int EXECUTE = 1;
+
+	/**
+	 * Index of the histogram timing {@link Command#isFinished()}.
+	 */
+	public static final int IS_FINISHED = 2;
+
+	/**
+	 * Index of the histogram timing {@link Command#end()} and {@link Command#interrupted()}.
+	 */
+	public static final int END = 3;
+
+	private static final String[] PHASE_NAMES = { "initialize", "execute", "isFinished", "end" };
+	private static final String[] DIGIT_NAMES = { "Zero", "One", "Two", "Three", "Four", "Five", "Six", "Seven",
+			"Eight", "Nine" };
+
+	/**
+	 * The latency histograms for a single class of command.
+	 */
+	public static class CommandProfile {
+		private final String name;
+		private final LatencyHistogram[] phases;
+		private final String[] keys;
+		private int[] executeKeyIds;
+
+		private CommandProfile(Class<?> type) {
+			name = nameOf(type);
+			phases = new LatencyHistogram[PHASE_NAMES.length];
+			keys = new String[PHASE_NAMES.length];
+			String key = keyOf(name);
+			for(int i = 0; i < phases.length; i++) {
+				phases[i] = new LatencyHistogram();
+				keys[i] = key + " " + PHASE_NAMES[i];
+			}
+		}
+
+		/**
+		 * Gets the histogram for one phase of the command.
+		 *
+		 * @param phase
+		 *            the phase ({@link #INITIALIZE}, {@link #EXECUTE},
+		 *            {@link #IS_FINISHED} or {@link #END})
+		 * @return the histogram
+		 */
+		public LatencyHistogram getPhase(int phase) {
+			return phases[phase];
+		}
+
+		/**
+		 * Records the time taken by one phase of a command of this class. Commands
+		 * of the same class may run on different worker threads at once, so
+		 * recording is serialized per profile.
+		 *
+		 * @param phase
+		 *            the phase which was timed
+		 * @param nanos
+		 *            the time taken (in ns)
+		 */
+		synchronized void record(int phase, long nanos) {
+			phases[phase].record(nanos);
+		}
+
+		/**
+		 * @return the simple class name of the command, or the binary name
+		 *         without the package for an anonymous command
+		 */
+		public String getName() {
+			return name;
+		}
+	}
+
+	private final Map<Class<?>, CommandProfile> profiles;
+	private final List<CommandProfile> ordered;
+	private final LatencyHistogram tick;
+	private int[] tickKeyIds;
+
+	/**
+	 * Constructs a new, empty profiler.
+	 */
+	SchedulerProfiler() {
+		profiles = new IdentityHashMap<Class<?>, CommandProfile>();
+		ordered = new ArrayList<CommandProfile>();
+		tick = new LatencyHistogram();
+	}
+
+	/**
+	 * Gets the profile for the class of a command, creating it if this is the
+	 * first time a command of that class has been seen.
+	 *
+	 * @param c
+	 *            the command
+	 * @return the profile shared by every command of the same class
+	 */
+	public CommandProfile getProfile(Command c) {
+		Class<?> type = c.getClass();
+		CommandProfile p = profiles.get(type);
+		if(p == null) {
+			p = new CommandProfile(type);
+			profiles.put(type, p);
+			ordered.add(p);
+		}
+		return p;
+	}
+
+	/**
+	 * Records the time taken by one phase of a command.
+	 *
+	 * @param c
+	 *            the command
+	 * @param phase
+	 *            the phase which was timed
+	 * @param nanos
+	 *            the time taken (in ns)
+	 */
+	void record(Command c, int phase, long nanos) {
+		getProfile(c).record(phase, nanos);
+	}
+
+	/**
+	 * Records the time taken by one full call to {@link Scheduler#run()}.
+	 *
+	 * @param nanos
+	 *            the time taken (in ns)
+	 */
+	void recordTick(long nanos) {
+		tick.record(nanos);
+	}
+
+	/**
+	 * @return the histogram of full {@link Scheduler#run()} calls
+	 */
+	public LatencyHistogram getTickHistogram() {
+		return tick;
+	}
+
+	/**
+	 * Clears every recorded latency, keeping the profiles of known command
+	 * classes.
+	 */
+	public void reset() {
+		tick.reset();
+		for(CommandProfile p : ordered)
+			for(LatencyHistogram h : p.phases)
+				h.reset();
+	}
+
+	/**
+	 * Prints the median, 99th percentile and maximum latency of every phase of
+	 * every command which has run, in microseconds.
+	 *
+	 * @param out
+	 *            the stream to print to
+	 */
+	public void dump(PrintStream out) {
+		out.println(String.format("%-40s %-11s %9s %9s %9s %9s", "command", "phase", "count", "p50 us", "p99 us", "max us"));
+		out.println(String.format("%-40s %-11s %9d %9.1f %9.1f %9.1f", "Scheduler.run", "tick", tick.getCount(),
+				tick.getMedian() / 1e3, tick.getPercentile(0.99) / 1e3, tick.getMax() / 1e3));
+		for(CommandProfile p : ordered)
+			for(int i = 0; i < p.phases.length; i++) {
+				LatencyHistogram h = p.phases[i];
+				if(h.getCount() > 0)
+					out.println(String.format("%-40s %-11s %9d %9.1f %9.1f %9.1f", p.name, PHASE_NAMES[i],
+							h.getCount(), h.getMedian() / 1e3, h.getPercentile(0.99) / 1e3, h.getMax() / 1e3));
+			}
+	}
+
+	/**
+	 * Puts the median, 99th percentile and maximum latency (in microseconds) of the
+	 * scheduler tick and of every command's execute phase to the
+	 * {@link SmartDashboard}.
+	 */
+	public void publish() {
+		if(tickKeyIds == null)
+			tickKeyIds = keyIds("Scheduler tick");
+		publish(tickKeyIds, tick);
+		for(CommandProfile p : ordered) {
+			LatencyHistogram h = p.phases[EXECUTE];
+			if(h.getCount() > 0) {
+				if(p.executeKeyIds == null)
+					p.executeKeyIds = keyIds(p.keys[EXECUTE]);
+				publish(p.executeKeyIds, h);
+			}
+		}
+	}
+
+	/**
+	 * Names a command class: its simple name, or its binary name without the
+	 * package (such as Robot$1) if it is anonymous.
+	 */
+	private static String nameOf(Class<?> type) {
+		String name = type.getSimpleName();
+		if(name.isEmpty()) {
+			name = type.getName();
+			name = name.substring(name.lastIndexOf('.') + 1);
+		}
+		return name;
+	}
+
+	/**
+	 * Spells out the digits of a name, since SmartDashboard keys cannot hold
+	 * numbers (so Drive2Feet becomes DriveTwoFeet).
+	 */
+	private static String keyOf(String name) {
+		StringBuilder key = new StringBuilder(name.length());
+		for(int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if(c >= '0' && c <= '9')
+				key.append(DIGIT_NAMES[c - '0']);
+			else
+				key.append(c);
+		}
+		return key.toString();
+	}
+
+	private static int[] keyIds(String prefix) {
+		return new int[] { SmartDashboard.getKeyId(prefix + " median"), SmartDashboard.getKeyId(prefix + " tail"),
+				SmartDashboard.getKeyId(prefix + " max") };
+	}
+
+	private static void publish(int[] keyIds, LatencyHistogram h) {
+		SmartDashboard.putNumber(keyIds[0], h.getMedian() / 1e3);
+		SmartDashboard.putNumber(keyIds[1], h.getPercentile(0.99) / 1e3);
+		SmartDashboard.putNumber(keyIds[2], h.getMax() / 1e3);
+	}
+}
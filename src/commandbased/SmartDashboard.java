@@ -1,27 +1,251 @@
 package commandbased;
 
-import java.security.InvalidParameterException;
-import java.util.HashSet;
-import java.util.Set;
-
-import util.MathUtil;
-
 /**
- * Simulates the SmartDashboard by putting data to the console to be received by the GUI.
+ * Simulates the SmartDashboard: a table of typed values, keyed by name, which is streamed to
+ * be received by the GUI and can be changed by it.
+ *
+ * Values are not written when they are put: each key is interned to an integer ID the
+ * first time it is used, and its latest value is held until a background thread writes
+ * every changed value together, {@link #DEFAULT_RATE_HZ} times per second by default.
+ * Putting a number therefore never allocates or blocks the control loop, and getting any
+ * value is a lock-free read. The type of a key is fixed by the first value put under it.
+ *
+ * By default numbers are written to the console as text, as the GUI expects. With the
+ * binary format and a {@link SocketTelemetrySink}, readers receive every type, and may send
+ * updates back, such as new PID gains; see {@link TelemetryTable} for the format.
  * @author Finn Frankis
  * @version Aug 6, 2018
  */
 public class SmartDashboard {
-    private static final String PREFIX = "SD: ";
+    /**
+     * The number of times per second values are written by default.
+     */
+    public static final double DEFAULT_RATE_HZ = 50;
+
+    /**
+     * The formats in which values can be written.
+     */
+    public enum Format {
+        /**
+         * One line per number, "SD: key value", as read by the GUI.
+         */
+        TEXT,
+
+        /**
+         * A compact binary stream of key tables and frames, described in {@link TelemetryTable}.
+         */
+        BINARY;
+    }
 
     /**
-     * Puts a given number to the console to be read.
+     * The types of value which can be put.
+     */
+    public enum Type {
+        NUMBER, BOOLEAN, STRING, NUMBER_ARRAY, BOOLEAN_ARRAY, STRING_ARRAY;
+    }
+
+    private static final TelemetryTable table = new TelemetryTable(Format.TEXT,
+            new StreamTelemetrySink(System.out), DEFAULT_RATE_HZ);
+
+    /**
+     * Puts a given number to be read.
      * @param key the key to which the value will be assigned (the title of the graph), containing no numeric characters
      * @param value the value to be graphed under the key
+     * @return true if the value was put; false if the key holds another type
+     */
+    public static boolean putNumber (String key, double value) {
+        return putNumber(table.intern(key), value);
+    }
+
+    /**
+     * Puts a given number to be read, under a key previously interned with {@link #getKeyId(String)}.
+     * Avoids looking up the key, for values put from tight loops.
+     * @param keyId the ID of the key
+     * @param value the value to be graphed under the key
+     * @return true if the value was put; false if the key holds another type
+     */
+    public static boolean putNumber (int keyId, double value) {
+        return table.putBits(keyId, Type.NUMBER, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Puts a given boolean to be read.
+     * @param key the key to which the value will be assigned, containing no numeric characters
+     * @param value the value
+     * @return true if the value was put; false if the key holds another type
+     */
+    public static boolean putBoolean (String key, boolean value) {
+        return table.putBits(table.intern(key), Type.BOOLEAN, value ? 1 : 0);
+    }
+
+    /**
+     * Puts a given String to be read.
+     * @param key the key to which the value will be assigned, containing no numeric characters
+     * @param value the value
+     * @return true if the value was put; false if the key holds another type
+     */
+    public static boolean putString (String key, String value) {
+        return table.putObject(table.intern(key), Type.STRING, value);
+    }
+
+    /**
+     * Puts a copy of a given array of numbers to be read.
+     * @param key the key to which the value will be assigned, containing no numeric characters
+     * @param value the value
+     * @return true if the value was put; false if the key holds another type
+     */
+    public static boolean putNumberArray (String key, double[] value) {
+        return table.putObject(table.intern(key), Type.NUMBER_ARRAY, value.clone());
+    }
+
+    /**
+     * Puts a copy of a given array of booleans to be read.
+     * @param key the key to which the value will be assigned, containing no numeric characters
+     * @param value the value
+     * @return true if the value was put; false if the key holds another type
+     */
+    public static boolean putBooleanArray (String key, boolean[] value) {
+        return table.putObject(table.intern(key), Type.BOOLEAN_ARRAY, value.clone());
+    }
+
+    /**
+     * Puts a copy of a given array of Strings to be read.
+     * @param key the key to which the value will be assigned, containing no numeric characters
+     * @param value the value
+     * @return true if the value was put; false if the key holds another type
+     */
+    public static boolean putStringArray (String key, String[] value) {
+        return table.putObject(table.intern(key), Type.STRING_ARRAY, value.clone());
+    }
+
+    /**
+     * Gets the number under a key.
+     * @param key the key
+     * @param defaultValue the value to return if the key does not hold a number
+     * @return the number
+     */
+    public static double getNumber (String key, double defaultValue) {
+        return getNumber(table.find(key), defaultValue);
+    }
+
+    /**
+     * Gets the number under a key previously interned with {@link #getKeyId(String)}.
+     * @param keyId the ID of the key
+     * @param defaultValue the value to return if the key does not hold a number
+     * @return the number
+     */
+    public static double getNumber (int keyId, double defaultValue) {
+        return Double.longBitsToDouble(table.getBits(keyId, Type.NUMBER, Double.doubleToRawLongBits(defaultValue)));
+    }
+
+    /**
+     * Gets the boolean under a key.
+     * @param key the key
+     * @param defaultValue the value to return if the key does not hold a boolean
+     * @return the boolean
+     */
+    public static boolean getBoolean (String key, boolean defaultValue) {
+        return table.getBits(table.find(key), Type.BOOLEAN, defaultValue ? 1 : 0) != 0;
+    }
+
+    /**
+     * Gets the String under a key.
+     * @param key the key
+     * @param defaultValue the value to return if the key does not hold a String
+     * @return the String
+     */
+    public static String getString (String key, String defaultValue) {
+        Object value = table.getObject(table.find(key), Type.STRING);
+        return value != null ? (String) value : defaultValue;
+    }
+
+    /**
+     * Gets a copy of the array of numbers under a key.
+     * @param key the key
+     * @param defaultValue the value to return if the key does not hold an array of numbers
+     * @return the array
+     */
+    public static double[] getNumberArray (String key, double[] defaultValue) {
+        Object value = table.getObject(table.find(key), Type.NUMBER_ARRAY);
+        return value != null ? ((double[]) value).clone() : defaultValue;
+    }
+
+    /**
+     * Gets a copy of the array of booleans under a key.
+     * @param key the key
+     * @param defaultValue the value to return if the key does not hold an array of booleans
+     * @return the array
+     */
+    public static boolean[] getBooleanArray (String key, boolean[] defaultValue) {
+        Object value = table.getObject(table.find(key), Type.BOOLEAN_ARRAY);
+        return value != null ? ((boolean[]) value).clone() : defaultValue;
+    }
+
+    /**
+     * Gets a copy of the array of Strings under a key.
+     * @param key the key
+     * @param defaultValue the value to return if the key does not hold an array of Strings
+     * @return the array
+     */
+    public static String[] getStringArray (String key, String[] defaultValue) {
+        Object value = table.getObject(table.find(key), Type.STRING_ARRAY);
+        return value != null ? ((String[]) value).clone() : defaultValue;
+    }
+
+    /**
+     * Gets the type of the value under a key.
+     * @param key the key
+     * @return the type, or null if no value has been put under the key
+     */
+    public static Type getType (String key) {
+        return table.getType(table.find(key));
+    }
+
+    /**
+     * Gets the ID of a key, assigning one if the key has not been used before.
+     * @param key the key (the title of the graph), containing no numeric characters
+     * @return the ID, or -1 if too many keys are in use (values put under it are ignored)
+     */
+    public static int getKeyId (String key) {
+        return table.intern(key);
+    }
+
+    /**
+     * Adds a listener to be notified when a reader changes the value under a key.
+     * @param key the key, containing no numeric characters
+     * @param listener the listener
+     */
+    public static void addListener (String key, DashboardListener listener) {
+        int id = table.intern(key);
+        if (id >= 0)
+            table.addListener(id, listener);
+    }
+
+    /**
+     * Adds a listener to be notified when a reader changes the value under any key.
+     * @param listener the listener
+     */
+    public static void addListener (DashboardListener listener) {
+        table.addListener(-1, listener);
+    }
+
+    /**
+     * Changes where, how and how often values are written. Every value is sent again in the
+     * first frame written to the new sink.
+     * @param format the format in which to write values
+     * @param sink the destination of the stream, such as a {@link StreamTelemetrySink} for the
+     * console or a file, or a {@link SocketTelemetrySink}
+     * @param rateHz the number of times per second changed values are written
+     */
+    public static void configureTelemetry (Format format, TelemetrySink sink, double rateHz) {
+        table.configure(format, sink, rateHz);
+    }
+
+    /**
+     * Immediately applies any updates from readers and writes every value put since the last
+     * write, such as before the program exits.
      */
-    public static void putNumber (String key, double value) {
-        if (MathUtil.containsNumber(key))
-            throw new InvalidParameterException(key + " contains a numeric character.");
-        System.out.println(PREFIX + key + " " + value);
+    public static void flush () {
+        table.flush();
     }
 }
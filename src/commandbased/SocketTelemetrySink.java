@@ -0,0 +1,131 @@
+package commandbased;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+import util.Log;
+
+/**
+ * Sends the SmartDashboard stream to every client connected to a TCP port, and reads
+ * the updates they send back. Clients may connect at any time; each one is sent the
+ * whole table when it joins. A client which cannot accept a whole write without
+ * blocking (because it has stopped reading) is disconnected rather than being
+ * allowed to delay the stream, as is one which sends a record longer than
+ * {@link #MAX_RECORD_LENGTH} bytes.
+ */
+public class SocketTelemetrySink implements TelemetrySink {
+	/**
+	 * The longest update record a client may send.
+	 */
+	public static final int MAX_RECORD_LENGTH = 1 << 16;
+
+	private final ServerSocketChannel server;
+	private final List<Client> clients;
+	private volatile int clientCount;
+
+	private static class Client {
+		private final SocketChannel channel;
+		private final ByteBuffer received;
+
+		private Client(SocketChannel channel) {
+			this.channel = channel;
+			this.received = ByteBuffer.allocate(MAX_RECORD_LENGTH);
+		}
+	}
+
+	/**
+	 * Constructs a new SocketTelemetrySink and begins listening.
+	 *
+	 * @param port
+	 *            the TCP port on which to listen
+	 * @throws IOException
+	 *             if the port cannot be opened
+	 */
+	public SocketTelemetrySink(int port) throws IOException {
+		server = ServerSocketChannel.open();
+		server.configureBlocking(false);
+		server.socket().setReuseAddress(true);
+		server.bind(new InetSocketAddress(port));
+		clients = new ArrayList<Client>();
+	}
+
+	@Override
+	public boolean acceptReaders() throws IOException {
+		boolean joined = false;
+		for(SocketChannel c = server.accept(); c != null; c = server.accept()) {
+			c.configureBlocking(false);
+			c.socket().setTcpNoDelay(true);
+			clients.add(new Client(c));
+			joined = true;
+		}
+		clientCount = clients.size();
+		return joined;
+	}
+
+	@Override
+	public void read(Consumer<ByteBuffer> decoder) throws IOException {
+		for(Iterator<Client> it = clients.iterator(); it.hasNext();) {
+			Client c = it.next();
+			try {
+				if(c.channel.read(c.received) < 0)
+					throw new IOException("client disconnected");
+				c.received.flip();
+				decoder.accept(c.received);
+				c.received.compact();
+				if(!c.received.hasRemaining())
+					throw new IOException("record too long");
+			} catch(IOException e) {
+				it.remove();
+				c.channel.close();
+			}
+		}
+		clientCount = clients.size();
+	}
+
+	@Override
+	public void write(ByteBuffer data) throws IOException {
+		int start = data.position();
+		for(Iterator<Client> it = clients.iterator(); it.hasNext();) {
+			Client c = it.next();
+			data.position(start);
+			try {
+				while(data.hasRemaining())
+					if(c.channel.write(data) == 0)
+						throw new IOException("client is not reading");
+			} catch(IOException e) {
+				it.remove();
+				c.channel.close();
+			}
+		}
+		data.position(data.limit());
+		clientCount = clients.size();
+	}
+
+	/**
+	 * Gets the number of clients connected as of the last write.
+	 *
+	 * @return the number of clients
+	 */
+	public int getClientCount() {
+		return clientCount;
+	}
+
+	@Override
+	public void close() {
+		try {
+			for(Client c : clients)
+				c.channel.close();
+			clients.clear();
+			server.close();
+		} catch(IOException e) {
+			Log.warn(this, "Error closing telemetry socket", e);
+		}
+	}
+}
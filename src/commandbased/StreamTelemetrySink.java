@@ -0,0 +1,66 @@
+package commandbased;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+import util.Log;
+
+/**
+ * Writes the SmartDashboard stream to an output stream, such as the console or a
+ * file. Nothing is read back.
+ */
+public class StreamTelemetrySink implements TelemetrySink {
+	private final OutputStream out;
+
+	/**
+	 * Constructs a new StreamTelemetrySink.
+	 *
+	 * @param out
+	 *            the stream to write to
+	 */
+	public StreamTelemetrySink(OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Constructs a new StreamTelemetrySink which writes to a file, replacing its
+	 * contents.
+	 *
+	 * @param path
+	 *            the path of the file
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public StreamTelemetrySink(String path) throws IOException {
+		this(new FileOutputStream(path));
+	}
+
+	@Override
+	public void write(ByteBuffer data) throws IOException {
+		out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+		out.flush();
+		data.position(data.limit());
+	}
+
+	@Override
+	public boolean acceptReaders() {
+		return false;
+	}
+
+	@Override
+	public void read(Consumer<ByteBuffer> decoder) {}
+
+	@Override
+	public void close() {
+		if(out == System.out || out == System.err)
+			return;
+		try {
+			out.close();
+		} catch(IOException e) {
+			Log.warn(this, "Error closing telemetry stream", e);
+		}
+	}
+}
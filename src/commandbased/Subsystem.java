@@ -8,8 +8,19 @@ public abstract class Subsystem
 {
     private Command defaultCommand;
     
+    /**
+     * The bit representing this subsystem in a command's requirement mask,
+     * assigned by the Scheduler on construction.
+     */
+    int index;
+    
     public abstract void initDefaultCommand();
     
+    /**
+     * Constructs a new Subsystem and registers it with the Scheduler. At most
+     * {@link Scheduler#MAX_SUBSYSTEMS} subsystems can be constructed.
+     * @throws IllegalStateException if the limit has been reached
+     */
     public Subsystem () {
         Scheduler.getInstance().addSubsystem(this);
     }
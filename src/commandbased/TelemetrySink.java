@@ -0,0 +1,54 @@
+package commandbased;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * The destination of the stream of entries put to the {@link SmartDashboard}, and
+ * the source of any updates sent back by its readers. Only called from the
+ * telemetry thread.
+ *
+ * @see StreamTelemetrySink
+ * @see SocketTelemetrySink
+ */
+public interface TelemetrySink {
+	/**
+	 * Writes part of the stream. The data always holds whole records, so a reader
+	 * which joins between two writes sees a well-formed stream.
+	 *
+	 * @param data
+	 *            the bytes to write, between the buffer's position and limit
+	 * @throws IOException
+	 *             if the data could not be written
+	 */
+	void write(ByteBuffer data) throws IOException;
+
+	/**
+	 * Admits any readers waiting to join, without blocking. Called before each
+	 * write.
+	 *
+	 * @return true if a reader joined, in which case every entry is sent again so
+	 *         that it learns the whole table
+	 * @throws IOException
+	 *             if readers could not be admitted
+	 */
+	boolean acceptReaders() throws IOException;
+
+	/**
+	 * Passes the bytes received from each reader since the last call to a decoder,
+	 * without blocking. The decoder consumes whole records and leaves any partial
+	 * record at the buffer's position, to be passed again once more bytes arrive.
+	 *
+	 * @param decoder
+	 *            the decoder to pass each reader's bytes to
+	 * @throws IOException
+	 *             if the readers could not be read
+	 */
+	void read(Consumer<ByteBuffer> decoder) throws IOException;
+
+	/**
+	 * Releases the resources held by the sink once it is no longer used.
+	 */
+	void close();
+}
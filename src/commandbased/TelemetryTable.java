@@ -0,0 +1,613 @@
+package commandbased;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import util.Clock;
+import util.Log;
+import util.MathUtil;
+
+/**
+ * Holds the entries of the {@link SmartDashboard} and keeps them in sync with a
+ * {@link TelemetrySink} from a background thread at a fixed rate.
+ *
+ * Each key is interned to an integer ID the first time it is used, and its type is
+ * fixed the first time a value is put under it. Numbers and booleans are held in a
+ * preallocated array of primitive bits, and strings and arrays as immutable
+ * copies, so getting a value is a lock-free read and putting a number never
+ * allocates, formats or blocks. Putting a value equal to the current one is
+ * ignored. Each frame the writer sends every entry which changed since the previous
+ * frame, so the stream only carries deltas; a value put several times between
+ * frames is sent once, with its latest value. When a reader joins, every entry is
+ * sent again.
+ *
+ * In the binary format, the stream is a sequence of big-endian records:
+ * <ul>
+ * <li>a key table: the byte 'K', the number of keys (u16), then for each key its ID
+ * (u16), its type (u8, the ordinal of {@link SmartDashboard.Type} plus one), the
+ * length of its name in bytes (u16) and its name in UTF-8. Sent before the first
+ * value of a key.</li>
+ * <li>a frame: the byte 'F', the time of the frame in ns (i64), the number of
+ * values (u16), then for each value its key ID (u16) and the value.</li>
+ * </ul>
+ * Readers may send updates back as records made of the byte 'U', the type (u8), the
+ * length of the key in bytes (u16), the key in UTF-8, and the value. Updates are
+ * applied before the next frame is written and notify the key's listeners.
+ *
+ * Values are encoded as: a number as an f64; a boolean as a u8 (0 or 1); a string as
+ * its length in bytes (u16) then UTF-8; an array as its length (u16) then each
+ * element as above.
+ *
+ * In the text format, each number is written as a line "SD: key value", as the GUI
+ * expects; other types are not written, and no updates are read.
+ */
+class TelemetryTable {
+	/**
+	 * The largest number of distinct keys.
+	 */
+	static final int MAX_KEYS = 1024;
+
+	private static final String PREFIX = "SD: ";
+	private static final int MAX_LENGTH = 0xFFFF;
+	private static final byte KEY_TABLE = 'K';
+	private static final byte FRAME = 'F';
+	private static final byte UPDATE = 'U';
+	private static final int UNTYPED = 0;
+	private static final int NEWLY_TYPED = 0, TYPED = 1, MISMATCH = 2;
+	private static final SmartDashboard.Type[] TYPES = SmartDashboard.Type.values();
+
+	private final ConcurrentHashMap<String, Integer> ids;
+	private final String[] keys;
+	private final byte[][] keyBytes;
+	private final AtomicInteger keyCount;
+	private final AtomicIntegerArray types; // ordinal + 1, or UNTYPED
+	private final AtomicLongArray bits; // doubles and booleans
+	private final AtomicReferenceArray<Object> objects; // strings and arrays
+	private final AtomicLongArray changed;
+	private final AtomicReferenceArray<CopyOnWriteArrayList<DashboardListener>> listeners;
+	private final CopyOnWriteArrayList<DashboardListener> globalListeners;
+
+	// used only while holding the lock on this
+	private final boolean[] announced;
+	private final long[] changedScratch;
+	private final StringBuilder text;
+	private ByteBuffer out;
+
+	private volatile SmartDashboard.Format format;
+	private volatile TelemetrySink sink;
+	private volatile long periodNanos;
+	private Thread thread;
+
+	/**
+	 * Constructs a new TelemetryTable. Its thread is not started until the first key
+	 * is interned.
+	 *
+	 * @param format
+	 *            the format in which to write values
+	 * @param sink
+	 *            the destination of the stream
+	 * @param rateHz
+	 *            the number of frames to write per second
+	 */
+	TelemetryTable(SmartDashboard.Format format, TelemetrySink sink, double rateHz) {
+		ids = new ConcurrentHashMap<String, Integer>();
+		keys = new String[MAX_KEYS];
+		keyBytes = new byte[MAX_KEYS][];
+		keyCount = new AtomicInteger();
+		types = new AtomicIntegerArray(MAX_KEYS);
+		bits = new AtomicLongArray(MAX_KEYS);
+		objects = new AtomicReferenceArray<Object>(MAX_KEYS);
+		changed = new AtomicLongArray(MAX_KEYS / Long.SIZE);
+		listeners = new AtomicReferenceArray<CopyOnWriteArrayList<DashboardListener>>(MAX_KEYS);
+		globalListeners = new CopyOnWriteArrayList<DashboardListener>();
+		announced = new boolean[MAX_KEYS];
+		changedScratch = new long[MAX_KEYS / Long.SIZE];
+		text = new StringBuilder();
+		out = ByteBuffer.allocate(1 + 8 + 2 + MAX_KEYS * (2 + 8));
+		configure(format, sink, rateHz);
+	}
+
+	/**
+	 * Changes where and how often values are written. Every entry is sent again in
+	 * the first frame written to the new sink.
+	 *
+	 * @param format
+	 *            the format in which to write values
+	 * @param sink
+	 *            the destination of the stream
+	 * @param rateHz
+	 *            the number of frames to write per second
+	 */
+	synchronized void configure(SmartDashboard.Format format, TelemetrySink sink, double rateHz) {
+		if(rateHz <= 0) {
+			Log.error(this, "Telemetry rate must be positive", new IllegalArgumentException());
+			return;
+		}
+		if(this.sink != null && this.sink != sink)
+			this.sink.close();
+		this.format = format;
+		this.sink = sink;
+		this.periodNanos = (long) (1e9 / rateHz);
+		resend();
+	}
+
+	/**
+	 * Gets the ID of a key, assigning one if the key has not been seen before.
+	 *
+	 * @param key
+	 *            the key, containing no numeric characters
+	 * @return the ID, or -1 if there are already {@link #MAX_KEYS} keys
+	 */
+	int intern(String key) {
+		Integer id = ids.get(key);
+		if(id != null)
+			return id;
+		synchronized(ids) {
+			id = ids.get(key);
+			if(id != null)
+				return id;
+			if(MathUtil.containsNumber(key))
+				throw new InvalidParameterException(key + " contains a numeric character.");
+			int next = keyCount.get();
+			if(next >= MAX_KEYS) {
+				Log.warn(this, "Too many SmartDashboard keys; not sending ", key);
+				ids.put(key, -1);
+				return -1;
+			}
+			keys[next] = key;
+			keyBytes[next] = key.getBytes(StandardCharsets.UTF_8);
+			listeners.set(next, new CopyOnWriteArrayList<DashboardListener>());
+			keyCount.set(next + 1);
+			ids.put(key, next);
+			if(thread == null) {
+				thread = new Thread(this::run, "telemetry");
+				thread.setDaemon(true);
+				thread.start();
+			}
+			return next;
+		}
+	}
+
+	/**
+	 * Gets the ID of a key without assigning one.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the ID, or -1 if the key is not in the table
+	 */
+	int find(String key) {
+		Integer id = ids.get(key);
+		return id != null ? id : -1;
+	}
+
+	/**
+	 * Puts a number or boolean, held as primitive bits.
+	 *
+	 * @param id
+	 *            the ID of the key
+	 * @param type
+	 *            {@link SmartDashboard.Type#NUMBER} or
+	 *            {@link SmartDashboard.Type#BOOLEAN}
+	 * @param value
+	 *            the bits of the value
+	 * @return true if the value was stored; false if the key holds another type
+	 */
+	boolean putBits(int id, SmartDashboard.Type type, long value) {
+		if(id < 0)
+			return false;
+		int claimed = claim(id, type);
+		if(claimed == MISMATCH)
+			return false;
+		if(bits.getAndSet(id, value) != value || claimed == NEWLY_TYPED)
+			markChanged(id);
+		return true;
+	}
+
+	/**
+	 * Puts a string or array, which must not be modified afterwards.
+	 *
+	 * @param id
+	 *            the ID of the key
+	 * @param type
+	 *            the type of the value
+	 * @param value
+	 *            the value
+	 * @return true if the value was stored; false if the key holds another type
+	 */
+	boolean putObject(int id, SmartDashboard.Type type, Object value) {
+		if(id < 0)
+			return false;
+		if(length(value) > MAX_LENGTH) {
+			Log.warn(this, "SmartDashboard array is too long to send: ", keys[id]);
+			return false;
+		}
+		int claimed = claim(id, type);
+		if(claimed == MISMATCH)
+			return false;
+		if(!equal(objects.getAndSet(id, value), value) || claimed == NEWLY_TYPED)
+			markChanged(id);
+		return true;
+	}
+
+	/**
+	 * Gets the bits of a number or boolean.
+	 *
+	 * @param id
+	 *            the ID of the key, or -1
+	 * @param type
+	 *            the type expected
+	 * @param defaultValue
+	 *            the bits to return if the key does not hold a value of the type
+	 * @return the bits of the value
+	 */
+	long getBits(int id, SmartDashboard.Type type, long defaultValue) {
+		if(id < 0 || types.get(id) != type.ordinal() + 1)
+			return defaultValue;
+		return bits.get(id);
+	}
+
+	/**
+	 * Gets a string or array, which must not be modified.
+	 *
+	 * @param id
+	 *            the ID of the key, or -1
+	 * @param type
+	 *            the type expected
+	 * @return the value, or null if the key does not hold a value of the type
+	 */
+	Object getObject(int id, SmartDashboard.Type type) {
+		if(id < 0 || types.get(id) != type.ordinal() + 1)
+			return null;
+		return objects.get(id);
+	}
+
+	/**
+	 * Gets the type of the value under a key.
+	 *
+	 * @param id
+	 *            the ID of the key, or -1
+	 * @return the type, or null if no value has been put under the key
+	 */
+	SmartDashboard.Type getType(int id) {
+		int t = id < 0 ? UNTYPED : types.get(id);
+		return t == UNTYPED ? null : TYPES[t - 1];
+	}
+
+	/**
+	 * Adds a listener to be notified of remote updates.
+	 *
+	 * @param id
+	 *            the ID of the key, or -1 to be notified of every key
+	 * @param listener
+	 *            the listener
+	 */
+	void addListener(int id, DashboardListener listener) {
+		if(id < 0)
+			globalListeners.add(listener);
+		else
+			listeners.get(id).add(listener);
+	}
+
+	/**
+	 * Fixes the type of a key if it has none.
+	 *
+	 * @return {@link #NEWLY_TYPED} if the key had no type, {@link #TYPED} if it
+	 *         already held the type, or {@link #MISMATCH} if it holds another type
+	 */
+	private int claim(int id, SmartDashboard.Type type) {
+		int t = type.ordinal() + 1;
+		if(types.compareAndSet(id, UNTYPED, t))
+			return NEWLY_TYPED;
+		if(types.get(id) == t)
+			return TYPED;
+		Log.warn(this, "Ignoring value of the wrong type for SmartDashboard key ", keys[id]);
+		return MISMATCH;
+	}
+
+	private static int length(Object value) {
+		if(value instanceof double[])
+			return ((double[]) value).length;
+		if(value instanceof boolean[])
+			return ((boolean[]) value).length;
+		if(value instanceof String[])
+			return ((String[]) value).length;
+		return 0;
+	}
+
+	private static boolean equal(Object a, Object b) {
+		if(a instanceof double[] && b instanceof double[])
+			return Arrays.equals((double[]) a, (double[]) b);
+		if(a instanceof boolean[] && b instanceof boolean[])
+			return Arrays.equals((boolean[]) a, (boolean[]) b);
+		if(a instanceof String[] && b instanceof String[])
+			return Arrays.equals((String[]) a, (String[]) b);
+		return a != null && a.equals(b);
+	}
+
+	private void markChanged(int id) {
+		int word = id >>> 6;
+		long bit = 1l << id;
+		long current;
+		do {
+			current = changed.get(word);
+			if((current & bit) != 0)
+				return;
+		} while(!changed.compareAndSet(word, current, current | bit));
+	}
+
+	private void resend() {
+		Arrays.fill(announced, false);
+		for(int id = 0; id < keyCount.get(); id++)
+			if(types.get(id) != UNTYPED)
+				markChanged(id);
+	}
+
+	/**
+	 * Applies any updates sent by readers, then writes every entry which changed
+	 * since the last frame.
+	 */
+	synchronized void flush() {
+		TelemetrySink s = sink;
+		try {
+			if(format == SmartDashboard.Format.BINARY) {
+				if(s.acceptReaders())
+					resend();
+				s.read(this::decodeUpdates);
+				writeBinary(s);
+			} else
+				writeText(s);
+		} catch(IOException e) {
+			Log.error(this, "Error writing telemetry", e);
+		}
+	}
+
+	private void takeChanged() {
+		for(int word = 0; word < changedScratch.length; word++)
+			changedScratch[word] = changed.getAndSet(word, 0);
+	}
+
+	private void writeBinary(TelemetrySink s) throws IOException {
+		takeChanged();
+		out.clear();
+
+		int tableStart = out.position();
+		int newKeys = 0;
+		out.put(KEY_TABLE).putShort((short) 0);
+		for(int word = 0; word < changedScratch.length; word++)
+			for(long mask = changedScratch[word]; mask != 0; mask &= mask - 1) {
+				int id = (word << 6) + Long.numberOfTrailingZeros(mask);
+				if(announced[id])
+					continue;
+				ensure(2 + 1 + 2 + keyBytes[id].length);
+				out.putShort((short) id).put((byte) types.get(id)).putShort((short) keyBytes[id].length)
+						.put(keyBytes[id]);
+				announced[id] = true;
+				newKeys++;
+			}
+		if(newKeys == 0)
+			out.position(tableStart);
+		else
+			out.putShort(tableStart + 1, (short) newKeys);
+
+		int frameStart = out.position();
+		int sent = 0;
+		ensure(1 + 8 + 2);
+		out.put(FRAME).putLong(Clock.now()).putShort((short) 0);
+		for(int word = 0; word < changedScratch.length; word++)
+			for(long mask = changedScratch[word]; mask != 0; mask &= mask - 1) {
+				int id = (word << 6) + Long.numberOfTrailingZeros(mask);
+				ensure(2);
+				out.putShort((short) id);
+				encode(TYPES[types.get(id) - 1], id);
+				sent++;
+			}
+		if(sent == 0)
+			out.position(frameStart);
+		else
+			out.putShort(frameStart + 1 + 8, (short) sent);
+
+		out.flip();
+		if(out.hasRemaining())
+			s.write(out);
+	}
+
+	private void encode(SmartDashboard.Type type, int id) {
+		switch(type) {
+			case NUMBER:
+				ensure(8);
+				out.putLong(bits.get(id));
+				break;
+			case BOOLEAN:
+				ensure(1);
+				out.put((byte) bits.get(id));
+				break;
+			case STRING:
+				putString((String) objects.get(id));
+				break;
+			case NUMBER_ARRAY:
+				double[] numbers = (double[]) objects.get(id);
+				ensure(2 + 8 * numbers.length);
+				out.putShort((short) numbers.length);
+				for(double d : numbers)
+					out.putDouble(d);
+				break;
+			case BOOLEAN_ARRAY:
+				boolean[] booleans = (boolean[]) objects.get(id);
+				ensure(2 + booleans.length);
+				out.putShort((short) booleans.length);
+				for(boolean b : booleans)
+					out.put((byte) (b ? 1 : 0));
+				break;
+			case STRING_ARRAY:
+				String[] strings = (String[]) objects.get(id);
+				ensure(2);
+				out.putShort((short) strings.length);
+				for(String str : strings)
+					putString(str);
+				break;
+		}
+	}
+
+	private void putString(String s) {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		int length = Math.min(b.length, MAX_LENGTH); // longer strings are cut short
+		ensure(2 + length);
+		out.putShort((short) length).put(b, 0, length);
+	}
+
+	private void ensure(int bytes) {
+		if(out.remaining() >= bytes)
+			return;
+		ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * out.capacity(), out.position() + bytes));
+		out.flip();
+		bigger.put(out);
+		out = bigger;
+	}
+
+	/**
+	 * Applies every whole update record in the buffer, leaving any partial record at
+	 * its position. Records which cannot be parsed cause the rest of the buffer to be
+	 * discarded.
+	 *
+	 * @param in
+	 *            the bytes received from one reader
+	 */
+	private void decodeUpdates(ByteBuffer in) {
+		while(in.hasRemaining()) {
+			int start = in.position();
+			try {
+				if(in.get() != UPDATE) {
+					Log.warn(this, "Discarding malformed SmartDashboard update");
+					in.position(in.limit());
+					return;
+				}
+				int t = in.get() - 1;
+				String key = readString(in);
+				if(t < 0 || t >= TYPES.length) {
+					Log.warn(this, "Discarding malformed SmartDashboard update");
+					in.position(in.limit());
+					return;
+				}
+				SmartDashboard.Type type = TYPES[t];
+				Object value = decode(type, in);
+				apply(key, type, value);
+			} catch(BufferUnderflowException e) {
+				in.position(start); // wait for the rest of the record
+				return;
+			}
+		}
+	}
+
+	private static Object decode(SmartDashboard.Type type, ByteBuffer in) {
+		switch(type) {
+			case NUMBER:
+				return in.getDouble();
+			case BOOLEAN:
+				return in.get() != 0;
+			case STRING:
+				return readString(in);
+			case NUMBER_ARRAY:
+				double[] numbers = new double[in.getShort() & MAX_LENGTH];
+				for(int i = 0; i < numbers.length; i++)
+					numbers[i] = in.getDouble();
+				return numbers;
+			case BOOLEAN_ARRAY:
+				boolean[] booleans = new boolean[in.getShort() & MAX_LENGTH];
+				for(int i = 0; i < booleans.length; i++)
+					booleans[i] = in.get() != 0;
+				return booleans;
+			default:
+				String[] strings = new String[in.getShort() & MAX_LENGTH];
+				for(int i = 0; i < strings.length; i++)
+					strings[i] = readString(in);
+				return strings;
+		}
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] b = new byte[in.getShort() & MAX_LENGTH];
+		in.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private void apply(String key, SmartDashboard.Type type, Object value) {
+		int id;
+		try {
+			id = intern(key);
+		} catch(InvalidParameterException e) {
+			Log.warn(this, "Ignoring SmartDashboard update: ", e.getMessage());
+			return;
+		}
+		boolean stored;
+		if(type == SmartDashboard.Type.NUMBER)
+			stored = putBits(id, type, Double.doubleToRawLongBits((Double) value));
+		else if(type == SmartDashboard.Type.BOOLEAN)
+			stored = putBits(id, type, ((Boolean) value) ? 1 : 0);
+		else
+			stored = putObject(id, type, value);
+		if(!stored)
+			return;
+		for(DashboardListener l : listeners.get(id))
+			notifyListener(l, key, value);
+		for(DashboardListener l : globalListeners)
+			notifyListener(l, key, value);
+	}
+
+	/**
+	 * Tells a listener of a change, reporting rather than propagating anything
+	 * it throws, so one faulty listener cannot stop the telemetry thread.
+	 */
+	private static void notifyListener(DashboardListener l, String key, Object value) {
+		try {
+			l.valueChanged(key, value);
+		} catch(RuntimeException e) {
+			Log.error(l, "Error in SmartDashboard listener for key ", key, e);
+		}
+	}
+
+	private void writeText(TelemetrySink s) throws IOException {
+		takeChanged();
+		text.setLength(0);
+		for(int word = 0; word < changedScratch.length; word++)
+			for(long mask = changedScratch[word]; mask != 0; mask &= mask - 1) {
+				int id = (word << 6) + Long.numberOfTrailingZeros(mask);
+				if(types.get(id) == SmartDashboard.Type.NUMBER.ordinal() + 1)
+					text.append(PREFIX).append(keys[id]).append(' ')
+							.append(Double.longBitsToDouble(bits.get(id))).append('\n');
+			}
+		if(text.length() > 0)
+			s.write(ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Writes frames until the program exits. Paced by real time rather than the
+	 * {@link Clock}, so that waiting here never advances a virtual clock.
+	 */
+	private void run() {
+		long next = System.nanoTime();
+		while(true) {
+			next += periodNanos;
+			long delay = next - System.nanoTime();
+			if(delay > 0)
+				LockSupport.parkNanos(this, delay);
+			else
+				next = System.nanoTime(); // fell behind; don't try to catch up
+			try {
+				flush();
+			} catch(RuntimeException e) {
+				Log.error(this, "Error in telemetry frame", e);
+			}
+		}
+	}
+}
@@ -1,12 +1,14 @@
 package commandbased;
 
+import util.Clock;
+
 /**
  * A {@link TimedCommand} will wait for a timeout before finishing.
  * {@link TimedCommand} is used to execute a command for a given amount of time.
  */
 public abstract class TimedCommand extends Command {
 	
-	private long timeInitialized; // millis
+	private long timeInitialized; // nanos
 	private double timeout; // seconds
 	
 	/**
@@ -21,7 +23,7 @@ public abstract class TimedCommand extends Command {
 	
 	@Override
 	protected final void initialize() {
-		timeInitialized = System.currentTimeMillis();
+		timeInitialized = Clock.tickTime();
 		postInitialize();
 	}
 	
@@ -39,7 +41,11 @@ public abstract class TimedCommand extends Command {
 		return timeSinceInitialized() >= timeout;
 	}
 	
+	/**
+	 * @return the time (in seconds) between the ticks in which this command was
+	 *         initialized and the current tick
+	 */
 	public double timeSinceInitialized() {
-		return (double) (System.currentTimeMillis() - timeInitialized) / 1000.0;
+		return Clock.toSeconds(Clock.tickTime() - timeInitialized);
 	}
 }
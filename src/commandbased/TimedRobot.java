@@ -1,7 +1,17 @@
 package commandbased;
 
+import devices.OutputBatch;
+import hal.GpioBackend;
+import simulation.Replay;
+import simulation.Simulation;
+
+import util.Clock;
 import util.ConsoleReader;
+import util.FlightRecorder;
+import util.Log;
+import util.PeriodicLoop;
 import util.SocketReader;
+import util.StartupPipeline;
 
 /**
  * Represents a robot which is controlled by timed segments.
@@ -11,75 +21,147 @@ import util.SocketReader;
 public abstract class TimedRobot {
     private int autonTime;
     private int teleopTime;
-    private boolean initOver;
+    private int countdownSeconds;
+    private PeriodicLoop loop;
     private static final String stopCharacter = "^C";
 
     /**
-     * Constructs a new TimedRobot.
+     * The default time (in ms) between the start of consecutive periodic calls.
+     */
+    public static final double DEFAULT_PERIOD_MS = 20;
+
+    /**
+     * The default length (in s) of the countdown before the match begins.
+     */
+    public static final int DEFAULT_COUNTDOWN_SECONDS = 5;
+
+    /**
+     * Constructs a new TimedRobot which runs its periodic methods every {@link #DEFAULT_PERIOD_MS} ms.
      * @param autonTimeMs the time (in ms) for which auton should last
      * @param teleopTimeMs the time (in ms) for which teleop should last
      */
     public TimedRobot (int autonTimeMs, int teleopTimeMs) {
+        this(autonTimeMs, teleopTimeMs, DEFAULT_PERIOD_MS);
+    }
+
+    /**
+     * Constructs a new TimedRobot.
+     * @param autonTimeMs the time (in ms) for which auton should last
+     * @param teleopTimeMs the time (in ms) for which teleop should last
+     * @param periodMs the time (in ms) between the start of consecutive periodic calls
+     */
+    public TimedRobot (int autonTimeMs, int teleopTimeMs, double periodMs) {
+        this(autonTimeMs, teleopTimeMs, new PeriodicLoop(periodMs));
+    }
+
+    /**
+     * Constructs a new TimedRobot.
+     * @param autonTimeMs the time (in ms) for which auton should last
+     * @param teleopTimeMs the time (in ms) for which teleop should last
+     * @param loop the loop which determines the timing of the periodic calls
+     */
+    public TimedRobot (int autonTimeMs, int teleopTimeMs, PeriodicLoop loop) {
         this.autonTime = autonTimeMs;
         this.teleopTime = teleopTimeMs;
+        this.loop = loop;
+        this.countdownSeconds = DEFAULT_COUNTDOWN_SECONDS;
     }
 
     /**
-     * To be run when the robot is enabled.
+     * To be run when the robot is enabled. If any startup stage fails, the failure is logged
+     * and the robot stays disabled: neither autonomous nor teleop begins.
      * @throws InterruptedException if the Thread.sleep() calls are interrupted
      */
     public void run () throws InterruptedException {
-        SocketReader.makeConnection();
-        Thread initThread, periodicThread;
+        final StartupPipeline startup = new StartupPipeline();
+        if (!Simulation.isEnabled() && !Replay.isEnabled())
+            startup.addStage("socket server", SocketReader::makeConnection);
+        StartupPipeline.Stage provisioning = startup.addStage("device provisioning", this::provisionDevices);
+        startup.addStage("robotInit", this::robotInit, provisioning);
+        startup.start();
+
+        loop.setWakeHandler(Scheduler.getInstance()::processEvents);
+        Scheduler.getInstance().setWakeHook(loop::wake);
 
-        (periodicThread = new Thread() {
+        new Thread() {
             public void run () {
                 try {
-                    System.out.println("Drivers behind the line.");
-                    Thread.sleep(1000l);
-                    System.out.println("Beginning in");
-                    Thread.sleep(1000l);
-                    System.out.println("3...");
-                    Thread.sleep(1000l);
-                    System.out.println("...2...");
-                    Thread.sleep(1000l);
-                    System.out.println("...1");
-                    Thread.sleep(1000l);
-                    System.out.println("POWER UP!");
-                    while (!initOver);
-                    System.out.println("Autonomous period beginning.");
-                    long startTime = System.currentTimeMillis();
+                    countdown();
+                    startup.await();
+                    startup.printReport();
+                    if (startup.hasFailures()) {
+                        Log.error(TimedRobot.this, "Startup failed; the robot will stay disabled.");
+                        Log.flush();
+                        return;
+                    }
+                    Log.info(TimedRobot.this, "Autonomous period beginning.");
+                    long startTime = Clock.sampleTick();
                     autonomousInit();
-                    while (System.currentTimeMillis() - startTime < autonTime) {
-                        System.out.println("entering again");
-                        System.out.println("SOCK VAL:" + SocketReader.getValue());
+                    loop.start();
+                    while (Clock.sampleTick() - startTime < autonTime * 1000000l) {
+                        String message = SocketReader.getValue();
+                        if (!message.isEmpty())
+                            Log.info(TimedRobot.this, "SOCK VAL:", message);
                         autonomousPeriodic();
                         superPeriodic();
-                        Thread.sleep(5l); // pause to allow time for other operations
+                        if (loop.getTickCount() == 0)
+                            Log.info(TimedRobot.this, "First enabled tick completed " + StartupPipeline.getUptimeMs() 
+                                    + " ms after JVM launch.");
+                        loop.waitForNextTick();
                     }
-                    System.out.println("Teleoperated period beginning.");
+                    Log.info(TimedRobot.this, "Teleoperated period beginning.");
+                    startTime = Clock.sampleTick();
                     teleopInit();
-                    startTime = System.currentTimeMillis();
-                    while (System.currentTimeMillis() - startTime < teleopTime) {
+                    loop.start();
+                    while (Clock.sampleTick() - startTime < teleopTime * 1000000l) {
                         teleopPeriodic();
                         superPeriodic();
-                        Thread.sleep(5l); // pause to allow time for other operation
+                        loop.waitForNextTick();
                     }
-                    System.out.println("Match complete.");
+                    Log.info(TimedRobot.this, "Match complete (" + loop.getTickCount() + " ticks, " 
+                            + loop.getOverrunCount() + " overruns, max lateness " + loop.getMaxLatenessMs() + " ms).");
                     TimedRobot.stop();
                 } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    Log.error(TimedRobot.this, "Match interrupted", e);
                 }
             }
-        }).start();
+        }.start();
+    }
 
-        (initThread = new Thread() {
-            public void run () {
-                robotInit();
-                initOver = true;
-            }
-        }).start();
+    /**
+     * Counts down to the start of the match, one line per second. Runs concurrently with the
+     * startup stages, so it only delays the match if it is longer than the startup itself.
+     * @throws InterruptedException if the thread is interrupted while sleeping
+     */
+    private void countdown () throws InterruptedException {
+        if (countdownSeconds <= 0)
+            return;
+        Log.info(this, "Drivers behind the line.");
+        Clock clock = Clock.getInstance();
+        long next = clock.nanoTime();
+        for (int i = countdownSeconds; i > 0; i--) {
+            Log.info(this, i + "...");
+            clock.sleepUntil(next += 1000000000l);
+        }
+        Log.info(this, "POWER UP!");
+    }
+
+    /**
+     * Sets the length of the countdown before the match begins.
+     * @param seconds the length of the countdown (in s), or 0 to skip it entirely
+     */
+    public void setCountdown (int seconds) {
+        countdownSeconds = seconds;
+    }
 
+    /**
+     * Prepares the hardware for use. Runs concurrently with the socket server startup and
+     * always completes before {@link #robotInit()} begins, so devices constructed in
+     * robotInit() do not pay the cost of loading the native GPIO library. Chooses the
+     * {@link GpioBackend} used by every device.
+     */
+    protected void provisionDevices () {
+        GpioBackend.getInstance();
     }
 
     /**
@@ -112,15 +194,29 @@ public abstract class TimedRobot {
      */
     public abstract void robotPeriodic ();
     
+    /**
+     * Gets the loop which determines the timing of the periodic calls.
+     * @return the periodic loop
+     */
+    public PeriodicLoop getLoop ()
+    {
+        return loop;
+    }
+    
     public void superPeriodic()
     {
         robotPeriodic();
+        OutputBatch.getInstance().flush();
+        FlightRecorder.recordTick(loop.getTickCount());
         if (ConsoleReader.getValue().equals(stopCharacter))
             stop();
     }
 
     public static void stop () {
-        System.out.println("STOPPING");
+        Log.info(TimedRobot.class, "STOPPING");
+        SmartDashboard.flush();
+        FlightRecorder.stop();
+        Log.flush();
         System.exit(0);
     }
 }
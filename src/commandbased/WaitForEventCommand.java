@@ -0,0 +1,41 @@
+package commandbased;
+
+/**
+ * A {@link WaitForEventCommand} does nothing until an {@link Event} is signaled,
+ * then finishes. It is never polled by the {@link Scheduler}, so waiting costs
+ * nothing per tick. It is useful if you want a {@link CommandGroup} to pause
+ * until something happens.
+ *
+ * @see Event
+ */
+public class WaitForEventCommand extends Command {
+	/**
+	 * Instantiates a {@link WaitForEventCommand} which finishes when the given
+	 * event is signaled.
+	 *
+	 * @param event
+	 *            the event to wait for
+	 */
+	public WaitForEventCommand(Event event) {
+		finishOn(event);
+	}
+
+	@Override
+	protected boolean isPolled() {
+		return false;
+	}
+
+	@Override
+	protected boolean isFinished() {
+		return false;
+	}
+
+	@Override
+	protected void initialize() {}
+
+	@Override
+	protected void execute() {}
+
+	@Override
+	protected void end() {}
+}
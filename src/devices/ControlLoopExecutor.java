@@ -0,0 +1,166 @@
+package devices;
+
+import java.util.Arrays;
+
+import util.Clock;
+import util.Log;
+import util.PeriodicLoop;
+import util.PeriodicLoop.OverrunPolicy;
+
+/**
+ * Runs the closed loops of a set of {@link TalonSRX} controllers on a dedicated thread at a
+ * fixed rate, as a real Talon does on the device, rather than only when the robot code calls
+ * {@link TalonSRX#set(TalonSRX.ControlMode, double)}.
+ *
+ * Once a Talon is registered, set() only publishes the new setpoint, which the control
+ * thread picks up on its next iteration; neither thread ever waits for the other. Set()
+ * should then only be called from one thread (normally the robot loop).
+ */
+public class ControlLoopExecutor
+{
+    /**
+     * The default time (in ms) between iterations of the control loops.
+     */
+    public static final double DEFAULT_PERIOD_MS = 1;
+
+    private final PeriodicLoop loop;
+    private volatile TalonSRX[] talons = new TalonSRX[0];
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Constructs a new ControlLoopExecutor running at 1 kHz.
+     */
+    public ControlLoopExecutor ()
+    {
+        this(DEFAULT_PERIOD_MS);
+    }
+
+    /**
+     * Constructs a new ControlLoopExecutor.
+     * @param periodMs the time (in ms) between iterations of the control loops
+     */
+    public ControlLoopExecutor (double periodMs)
+    {
+        loop = new PeriodicLoop(periodMs, OverrunPolicy.SKIP);
+        loop.setReportOverruns(false);
+    }
+
+    /**
+     * Hands the closed loop of a Talon to this executor.
+     * @param talon the Talon to run
+     */
+    public synchronized void register (TalonSRX talon)
+    {
+        if (talon.getExecutor() != null)
+        {
+            Log.error(this, "Talon is already registered with a control loop executor: ", talon,
+                    new IllegalArgumentException());
+            return;
+        }
+        talon.setExecutor(this);
+        TalonSRX[] updated = Arrays.copyOf(talons, talons.length + 1);
+        updated[talons.length] = talon;
+        talons = updated;
+    }
+
+    /**
+     * Returns the closed loop of a Talon to the thread which calls set().
+     * @param talon the Talon to stop running
+     */
+    public synchronized void unregister (TalonSRX talon)
+    {
+        for (int i = 0; i < talons.length; i++)
+        {
+            if (talons[i] == talon)
+            {
+                TalonSRX[] updated = new TalonSRX[talons.length - 1];
+                System.arraycopy(talons, 0, updated, 0, i);
+                System.arraycopy(talons, i + 1, updated, i, talons.length - i - 1);
+                talons = updated;
+                talon.setExecutor(null);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts the control thread. The thread runs at maximum priority so that the loops keep
+     * their rate while the robot loop is busy.
+     */
+    public synchronized void start ()
+    {
+        if (running)
+            return;
+        if (Clock.getInstance().isVirtual())
+        {
+            // sleeping on a virtual clock advances it, which only the robot loop may do
+            Log.warn(this, "Control loop executor cannot run its own thread on a virtual clock; call runOnce() instead.");
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "control-loop");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops the control thread after its current iteration.
+     */
+    public synchronized void stop ()
+    {
+        running = false;
+        if (thread != null)
+            thread.interrupt();
+        thread = null;
+    }
+
+    /**
+     * Runs one iteration of every registered loop on the calling thread. Useful when
+     * stepping a simulation.
+     */
+    public void runOnce ()
+    {
+        TalonSRX[] talons = this.talons;
+        for (int i = 0; i < talons.length; i++)
+        {
+            try
+            {
+                talons[i].runControlLoop();
+            }
+            catch (RuntimeException e)
+            {
+                Log.error(talons[i], "Error running control loop", e);
+            }
+        }
+        OutputBatch.getInstance().flush();
+    }
+
+    /**
+     * Gets the loop which paces the control thread, for instance to check how often
+     * it overran.
+     * @return the loop
+     */
+    public PeriodicLoop getLoop ()
+    {
+        return loop;
+    }
+
+    private void run ()
+    {
+        loop.start();
+        try
+        {
+            while (running)
+            {
+                runOnce();
+                loop.waitForNextTick();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // stopped
+        }
+    }
+}
@@ -3,42 +3,49 @@
  */
 package devices;
 
-import com.pi4j.io.gpio.GpioController;
-import com.pi4j.io.gpio.GpioFactory;
-import com.pi4j.io.gpio.GpioPinDigitalOutput;
-import com.pi4j.io.gpio.GpioPinPwmOutput;
-import com.pi4j.io.gpio.PinPullResistance;
-import com.pi4j.io.gpio.PinState;
-import com.pi4j.io.gpio.RaspiPin;
-import com.pi4j.wiringpi.Gpio;
+import hal.DigitalOutput;
+import hal.GpioBackend;
+import hal.PwmOutput;
 
 /**
  * @author joel + Finn Frankis
  */
 public class DigitalMotor implements com.diozero.api.OutputDeviceInterface {
 	
-	private GpioPinDigitalOutput forward, backward;
-	private GpioPinPwmOutput enable;
+	/**
+	 * The frequency of the enable signal (in Hz).
+	 */
+	public static final double PWM_FREQUENCY = 1000;
 	
 	/**
-	 * Constructs a new DigitalMotor.
+	 * The PWM value corresponding to full speed.
+	 */
+	public static final int PWM_RANGE = 1024;
+	
+	private DigitalOutput forward, backward;
+	private PwmOutput enable;
+	
+	/**
+	 * Constructs a new DigitalMotor using the default {@link GpioBackend}.
 	 * @param forward the forward digital pin (for forward direction), in WiringPi convention 
 	 * @param backward the backward digital pin (for backward motion), in WiringPi convention 
 	 * @param enable the enable analog pin, giving the magnitude of the speed
 	 */
 	public DigitalMotor(int forward, int backward, int enable) {
-		GpioController gpio = GpioFactory.getInstance();
-		this.forward = gpio.provisionDigitalOutputPin(RaspiPin.getPinByAddress(forward));
-		this.backward = gpio.provisionDigitalOutputPin(RaspiPin.getPinByAddress(backward));
-		this.enable = gpio.provisionSoftPwmOutputPin(RaspiPin.getPinByAddress(enable));
-		
-		Gpio.pwmSetMode(Gpio.PWM_MODE_MS);
-		Gpio.pwmSetRange(1024);
-		Gpio.pwmSetClock(1024);
-		
-		this.forward.setShutdownOptions(true, PinState.LOW, PinPullResistance.OFF);
-		this.backward.setShutdownOptions(true, PinState.LOW, PinPullResistance.OFF);
-		this.enable.setShutdownOptions(true, PinState.LOW, PinPullResistance.OFF);
+		this(forward, backward, enable, GpioBackend.getInstance());
+	}
+	
+	/**
+	 * Constructs a new DigitalMotor.
+	 * @param forward the forward digital pin (for forward direction), in WiringPi convention 
+	 * @param backward the backward digital pin (for backward motion), in WiringPi convention 
+	 * @param enable the enable analog pin, giving the magnitude of the speed
+	 * @param backend the backend which generates the outputs
+	 */
+	public DigitalMotor(int forward, int backward, int enable, GpioBackend backend) {
+		this.forward = backend.provisionDigitalOutput(forward);
+		this.backward = backend.provisionDigitalOutput(backward);
+		this.enable = backend.provisionPwmOutput(enable, PWM_FREQUENCY, PWM_RANGE);
 	}
 	
 
@@ -49,8 +56,9 @@ public class DigitalMotor implements com.diozero.api.OutputDeviceInterface {
     @Override
     public void setValue(float speed)
     {
-        forward.setState(speed > 0);
-        backward.setState(speed < 0);
-        enable.setPwm((int) Math.round(Math.abs(1024 * speed)));
+        OutputBatch batch = OutputBatch.getInstance();
+        batch.setState(forward, speed > 0);
+        batch.setState(backward, speed < 0);
+        batch.setPwm(enable, (int) Math.round(Math.abs(PWM_RANGE * speed)));
     }
 }
@@ -1,14 +1,8 @@
 package devices;
 
-import com.pi4j.io.gpio.GpioController;
-import com.pi4j.io.gpio.GpioFactory;
-import com.pi4j.io.gpio.GpioPinDigitalInput;
-import com.pi4j.io.gpio.PinEdge;
-import com.pi4j.io.gpio.PinPullResistance;
-import com.pi4j.io.gpio.PinState;
-import com.pi4j.io.gpio.RaspiPin;
-import com.pi4j.io.gpio.event.GpioPinDigitalStateChangeEvent;
-import com.pi4j.io.gpio.event.GpioPinListenerDigital;
+import hal.DigitalInput;
+import hal.GpioBackend;
+import hal.PullResistance;
 
 
 /**
@@ -18,43 +12,67 @@ import com.pi4j.io.gpio.event.GpioPinListenerDigital;
  */
 public class Encoder extends FeedbackSensor
 {
-    private GpioPinDigitalInput orangeInput, brownInput;
+    private DigitalInput orangeInput, brownInput;
+    private QuadratureDecoder decoder;
+    private volatile double offset;
 
     /**
-     * Constructs a new Encoder.
+     * Constructs a new Encoder using the default {@link GpioBackend}.
      * @param orangePort the pin into which the orange encoder wire is plugged in
      * @param brownPort the pin into which the brown encoder wire is plugged in
      */
     public Encoder (int orangePort, int brownPort)
-    {        
-        GpioController currentController = GpioFactory.getInstance();
+    {
+        this(orangePort, brownPort, GpioBackend.getInstance());
+    }
 
-        orangeInput = currentController.provisionDigitalInputPin(RaspiPin.getPinByAddress(orangePort), PinPullResistance.PULL_DOWN);
-        brownInput = currentController.provisionDigitalInputPin(RaspiPin.getPinByAddress(brownPort), PinPullResistance.PULL_DOWN);
-        
-        orangeInput.setShutdownOptions(true, PinState.LOW, PinPullResistance.OFF);
-        brownInput.setShutdownOptions(true, PinState.LOW, PinPullResistance.OFF);
+    /**
+     * Constructs a new Encoder.
+     * @param orangePort the pin into which the orange encoder wire is plugged in
+     * @param brownPort the pin into which the brown encoder wire is plugged in
+     * @param backend the backend through which the pins are read
+     */
+    public Encoder (int orangePort, int brownPort, GpioBackend backend)
+    {        
+        orangeInput = backend.provisionDigitalInput(orangePort, PullResistance.PULL_DOWN);
+        brownInput = backend.provisionDigitalInput(brownPort, PullResistance.PULL_DOWN);
         
-        orangeInput.addListener(new GpioPinListenerDigital() {
-            @Override
-            public void handleGpioPinDigitalStateChangeEvent(GpioPinDigitalStateChangeEvent changeEvent)
-            {
-                if (!changeEvent.getEdge().equals(PinEdge.BOTH) && !changeEvent.getEdge().equals(PinEdge.NONE))
-                {
-                    addToPosition((changeEvent.getEdge().equals(PinEdge.RISING) == brownInput.getState().equals(PinState.HIGH)) ? -1 : 1);
-                }
-                
-            }
-        });
-        brownInput.addListener(new GpioPinListenerDigital() {
-            @Override
-            public void handleGpioPinDigitalStateChangeEvent(GpioPinDigitalStateChangeEvent changeEvent)
-            {
-                if (!changeEvent.getEdge().equals(PinEdge.BOTH) && !changeEvent.getEdge().equals(PinEdge.NONE))
-                {
-                    addToPosition(changeEvent.getEdge().equals(PinEdge.RISING) == orangeInput.getState().equals(PinState.HIGH) ? 1 : -1);
-                }
-            }
-        });
+        decoder = new QuadratureDecoder(orangeInput.isHigh(), brownInput.isHigh());
+        orangeInput.addListener((pin, high, nanos) -> edge(QuadratureDecoder.CHANNEL_A, high, nanos));
+        brownInput.addListener((pin, high, nanos) -> edge(QuadratureDecoder.CHANNEL_B, high, nanos));
+    }
+    
+    private void edge (int channel, boolean high, long nanos)
+    {
+        long previous = decoder.getCount();
+        if (decoder.edge(channel, high) != 0)
+        {
+            double position = decoder.getCount() + offset;
+            recordEdge(nanos, position);
+            checkTriggers(previous + offset, position);
+        }
+    }
+    
+    @Override
+    public double getPosition ()
+    {
+        return decoder.getCount() + offset;
+    }
+    
+    @Override
+    public void setPosition (double newPosition)
+    {
+        super.setPosition(newPosition);
+        offset = newPosition - decoder.getCount();
+    }
+    
+    /**
+     * Gets the number of times an edge was missed, which suggests the encoder is turning faster
+     * than its edges can be handled.
+     * @return the number of illegal transitions seen
+     */
+    public long getErrorCount ()
+    {
+        return decoder.getErrorCount();
     }
 }
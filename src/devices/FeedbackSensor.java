@@ -1,5 +1,11 @@
 package devices;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import util.Clock;
+
 /**
  * Represents any type of sensor capable of reading data.
  * @author Finn Frankis
@@ -7,9 +13,78 @@ package devices;
  */
 public abstract class FeedbackSensor
 {
-    private double previousPosition;
-    private double previousTime;
-    private double currentPosition;
+    /**
+     * The number of edges remembered for computing velocity.
+     */
+    public static final int EDGE_CAPACITY = 64;
+    
+    /**
+     * The default number of edges over which velocity is measured.
+     */
+    public static final int DEFAULT_VELOCITY_WINDOW = 8;
+    
+    /**
+     * The ways in which the velocity measured across a window of edges can be filtered.
+     */
+    public enum VelocityFilter
+    {
+        /**
+         * The change in position across the whole window, divided by the time it took.
+         */
+        NONE,
+        
+        /**
+         * The mean of the velocities between each pair of consecutive edges in the window.
+         */
+        MOVING_AVERAGE,
+        
+        /**
+         * The median of the velocities between each pair of consecutive edges in the window,
+         * which rejects single edges with badly jittered timestamps.
+         */
+        MEDIAN;
+    }
+    
+    private static final int MASK = EDGE_CAPACITY - 1;
+    private static final ThreadLocal<EdgeWindow> WINDOWS = ThreadLocal.withInitial(EdgeWindow::new);
+    
+    /**
+     * A copy of the edges in the velocity window, reused by each reading thread so that
+     * reading the velocity does not allocate.
+     */
+    private static class EdgeWindow
+    {
+        private final long[] times = new long[EDGE_CAPACITY];
+        private final double[] positions = new double[EDGE_CAPACITY];
+        private final double[] velocities = new double[EDGE_CAPACITY];
+    }
+    
+    private volatile double currentPosition;
+    private volatile PositionTrigger[] triggers = new PositionTrigger[0];
+    
+    // ring buffer of edges; a slot's sequence number is -1 while it is being written
+    private final AtomicLong edgeCount = new AtomicLong();
+    private final AtomicLongArray edgeSequence = new AtomicLongArray(EDGE_CAPACITY);
+    private final AtomicLongArray edgeTimes = new AtomicLongArray(EDGE_CAPACITY); // ns
+    private final AtomicLongArray edgePositions = new AtomicLongArray(EDGE_CAPACITY); // double bits
+    private volatile long firstValidEdge;
+    private volatile int velocityWindow = DEFAULT_VELOCITY_WINDOW;
+    private volatile VelocityFilter velocityFilter = VelocityFilter.NONE;
+    
+    /**
+     * An action to be run when the position crosses a threshold.
+     */
+    private static class PositionTrigger
+    {
+        private final double threshold;
+        private final Runnable action;
+        
+        private PositionTrigger (double threshold, Runnable action)
+        {
+            this.threshold = threshold;
+            this.action = action;
+        }
+    }
    
     /**
      * Gets the current position.
@@ -21,23 +96,134 @@ public abstract class FeedbackSensor
     }
     
     /**
-     * Gets the current velocity.
-     * @return the current sensor velocity
+     * Gets the current velocity, measured from the timestamps of the most recent edges. Reading
+     * the velocity does not change any state, so any number of threads may read it.
+     * 
+     * If the sensor has not moved for more than twice the average time between the edges in the
+     * window, the time since the last edge is counted as well, so the velocity falls towards zero
+     * as soon as the mechanism stops rather than holding its last value.
+     * @return the current sensor velocity (in units per ms)
      */
     public double getVelocity()
     {
-        double currentPosition = getPosition(), currentTime = System.currentTimeMillis();
-        Double deltaT = currentTime - previousTime;
+        EdgeWindow window = WINDOWS.get();
+        int edges = readEdges(window);
+        if (edges < 2)
+            return 0;
         
-        if (previousTime == -1 || deltaT.equals(0d))
+        // edges are newest first
+        long[] times = window.times;
+        double[] positions = window.positions;
+        long span = times[0] - times[edges - 1];
+        if (span <= 0)
             return 0;
         
-        double velocity = (currentPosition - previousPosition) / (currentTime - previousTime);
+        // allow for jitter before deciding the sensor has slowed down
+        long now = Clock.now();
+        if (now - times[0] > 2 * span / (edges - 1))
+            return (positions[0] - positions[edges - 1]) / Clock.toMillis(now - times[edges - 1]);
         
-        previousPosition = currentPosition; 
-        previousTime = currentTime;
+        if (velocityFilter == VelocityFilter.NONE)
+            return (positions[0] - positions[edges - 1]) / Clock.toMillis(span);
         
-        return velocity;
+        double[] velocities = window.velocities;
+        int intervals = 0;
+        for (int i = 0; i < edges - 1; i++)
+        {
+            long dt = times[i] - times[i + 1];
+            if (dt > 0)
+                velocities[intervals++] = (positions[i] - positions[i + 1]) / Clock.toMillis(dt);
+        }
+        if (intervals == 0)
+            return 0;
+        if (velocityFilter == VelocityFilter.MEDIAN)
+            return median(velocities, intervals);
+        double sum = 0;
+        for (int i = 0; i < intervals; i++)
+            sum += velocities[i];
+        return sum / intervals;
+    }
+    
+    /**
+     * Configures the number of edges over which velocity is measured. Larger windows give a
+     * smoother velocity which reacts more slowly.
+     * @param edges the number of edges [2, {@link #EDGE_CAPACITY} / 2]
+     */
+    public void configVelocityMeasurementWindow (int edges)
+    {
+        // only half the buffer is read, so the edges read are never being overwritten
+        velocityWindow = Math.max(2, Math.min(EDGE_CAPACITY / 2, edges));
+    }
+    
+    /**
+     * Configures how the velocity across the window is filtered.
+     * @param filter the filter to apply
+     */
+    public void configVelocityFilter (VelocityFilter filter)
+    {
+        velocityFilter = filter;
+    }
+    
+    /**
+     * Records that the sensor moved, for measuring velocity. Called on every position update;
+     * sensors which track their position themselves should call it on every edge. Safe to call
+     * from several threads at once, and never allocates.
+     * @param time the {@link Clock} time (in ns) of the edge
+     * @param position the position after the edge
+     */
+    protected void recordEdge (long time, double position)
+    {
+        long n = edgeCount.getAndIncrement();
+        int slot = (int) (n & MASK);
+        edgeSequence.set(slot, -1);
+        edgeTimes.set(slot, time);
+        edgePositions.set(slot, Double.doubleToRawLongBits(position));
+        edgeSequence.set(slot, n);
+    }
+    
+    /**
+     * Copies the most recent edges in the velocity window, newest first, skipping any edge
+     * which is being written concurrently.
+     * @return the number of edges copied
+     */
+    private int readEdges (EdgeWindow window)
+    {
+        long newest = edgeCount.get() - 1;
+        long oldest = Math.max(firstValidEdge, newest - velocityWindow + 1);
+        int edges = 0;
+        for (long n = newest; n >= oldest; n--)
+        {
+            int slot = (int) (n & MASK);
+            if (edgeSequence.get(slot) != n)
+                continue;
+            long time = edgeTimes.get(slot);
+            long position = edgePositions.get(slot);
+            if (edgeSequence.get(slot) != n)
+                continue;
+            window.times[edges] = time;
+            window.positions[edges] = Double.longBitsToDouble(position);
+            edges++;
+        }
+        return edges;
+    }
+    
+    /**
+     * Finds the median of the first values of an array, partially sorting it.
+     */
+    private static double median (double[] values, int count)
+    {
+        for (int i = 1; i < count; i++)
+        {
+            double v = values[i];
+            int j = i - 1;
+            while (j >= 0 && values[j] > v)
+            {
+                values[j + 1] = values[j];
+                j--;
+            }
+            values[j + 1] = v;
+        }
+        return (count % 2 == 1) ? values[count / 2] : (values[count / 2 - 1] + values[count / 2]) / 2;
     }
     
     /**
@@ -47,8 +233,7 @@ public abstract class FeedbackSensor
      */
     public void setPosition (double newPosition)
     {
-        previousPosition = -1;
-        previousTime = -1;
+        firstValidEdge = edgeCount.get();
         currentPosition = newPosition;
     }
     
@@ -59,9 +244,27 @@ public abstract class FeedbackSensor
      */
     protected void addToPosition (double offset)
     {
-        previousPosition = currentPosition;
-        previousTime = System.currentTimeMillis();
-        currentPosition += offset;
+        addToPosition(offset, Clock.now());
+    }
+
+    /**
+     * Adds to the sensor value a given value, recording the edge at the time it occurred rather than
+     * the time it was handled. Nothing is recorded if the offset is 0.
+     *
+     * The read-modify-write of the position is not atomic, so updates must come from one thread at a
+     * time, as they do from a single GPIO listener.
+     * @param offset the amount to be added
+     * @param time the {@link Clock} time (in ns) of the edge
+     */
+    protected void addToPosition (double offset, long time)
+    {
+        if (offset == 0)
+            return;
+        double previousPosition = currentPosition;
+        double position = previousPosition + offset;
+        currentPosition = position;
+        recordEdge(time, position);
+        checkTriggers(previousPosition, position);
     }
     
     /**
@@ -71,8 +274,41 @@ public abstract class FeedbackSensor
      */
     protected void updatePosition (double position)
     {
-        previousPosition = currentPosition;
-        previousTime = System.currentTimeMillis();
+        double previousPosition = currentPosition;
         currentPosition = position;
+        recordEdge(Clock.now(), position);
+        checkTriggers(previousPosition, currentPosition);
+    }
+    
+    /**
+     * Runs an action every time the sensor position crosses a threshold in either direction, as part
+     * of the position update. The action runs on whichever thread reads the sensor (often a GPIO listener
+     * thread), so it should be short; signaling a {@link commandbased.Event} is the intended use, which lets
+     * commands react to the crossing without checking the position every tick.
+     * @param threshold the position to watch
+     * @param action the action to run when the position crosses the threshold
+     */
+    public synchronized void addPositionTrigger (double threshold, Runnable action)
+    {
+        PositionTrigger[] updated = Arrays.copyOf(triggers, triggers.length + 1);
+        updated[triggers.length] = new PositionTrigger(threshold, action);
+        triggers = updated;
+    }
+    
+    /**
+     * Runs the action of every trigger whose threshold lies between two positions. Called on every
+     * position update; sensors which track their position themselves should call it when it changes.
+     * @param previous the position before the update
+     * @param current the position after the update
+     */
+    protected void checkTriggers (double previous, double current)
+    {
+        PositionTrigger[] triggers = this.triggers;
+        for (int i = 0; i < triggers.length; i++)
+        {
+            double threshold = triggers[i].threshold;
+            if ((previous < threshold) != (current < threshold))
+                triggers[i].action.run();
+        }
     }
 }
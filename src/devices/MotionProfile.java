@@ -0,0 +1,237 @@
+package devices;
+
+import java.util.Arrays;
+
+import util.Log;
+import util.MathUtil;
+
+/**
+ * A trajectory sampled at a fixed period, held in primitive arrays so that it can be
+ * followed from inside a control loop without allocating.
+ *
+ * Profiles can be generated from a start and end position with a trapezoidal velocity
+ * (constant acceleration, cruise, constant deceleration), optionally smoothed into an
+ * S-curve which also limits jerk, or filled in point by point to stream an arbitrary path.
+ *
+ * Positions are in sensor units, velocities in sensor units per ms and accelerations in
+ * sensor units per ms per ms, matching {@link FeedbackSensor}.
+ */
+public class MotionProfile
+{
+    private final double periodMs;
+    private double[] position;
+    private double[] velocity;
+    private double[] acceleration;
+    private int length;
+
+    /**
+     * Constructs a new, empty MotionProfile.
+     * @param periodMs the time (in ms) between consecutive points
+     */
+    public MotionProfile (double periodMs)
+    {
+        if (periodMs <= 0)
+            throw new IllegalArgumentException("Profile period must be positive.");
+        this.periodMs = periodMs;
+        position = new double[16];
+        velocity = new double[16];
+        acceleration = new double[16];
+    }
+
+    /**
+     * Replaces the profile with a move from one position to another, starting and ending
+     * at rest. The buffers are reused, so regenerating a profile of similar length does not
+     * allocate.
+     * @param start the starting position
+     * @param end the final position
+     * @param cruiseVelocity the largest speed to be reached (in units per ms)
+     * @param acceleration the rate (in units per ms per ms) at which to speed up and slow down
+     * @param smoothing how much of the acceleration phase is spent ramping the acceleration
+     * up and down [0,1]; 0 gives a trapezoidal profile and larger values a gentler S-curve
+     * which takes slightly longer
+     * @return true if the profile was generated; false if the cruise velocity or acceleration
+     * was not positive, in which case the profile is left empty
+     */
+    public boolean generate (double start, double end, double cruiseVelocity, double acceleration, double smoothing)
+    {
+        if (cruiseVelocity <= 0 || acceleration <= 0)
+        {
+            Log.error(this, "Cruise velocity and acceleration must be positive", new IllegalArgumentException());
+            clear();
+            return false;
+        }
+        double distance = Math.abs(end - start);
+        double direction = Math.signum(end - start);
+        if (distance == 0)
+        {
+            clear();
+            add(start, 0, 0);
+            return true;
+        }
+
+        // a short move never reaches cruise velocity, giving a triangular profile
+        double peak = Math.min(cruiseVelocity, Math.sqrt(distance * acceleration));
+        double accelTime = peak / acceleration;
+        double cruiseTime = (distance - peak * accelTime) / peak;
+        double totalTime = 2 * accelTime + cruiseTime;
+
+        int samples = (int) Math.ceil(totalTime / periodMs) + 1;
+        int window = Math.max(1, (int) Math.round(MathUtil.restrictValue(smoothing, 0, 1) * accelTime / periodMs));
+        int n = samples + window - 1;
+        ensureCapacity(n);
+
+        // sample the trapezoid into the acceleration buffer, which is free until the end
+        double[] raw = this.acceleration;
+        for (int i = 0; i < samples; i++)
+        {
+            double t = i * periodMs;
+            if (t < accelTime)
+                raw[i] = acceleration * t;
+            else if (t < accelTime + cruiseTime)
+                raw[i] = peak;
+            else
+                raw[i] = Math.max(0, peak - acceleration * (t - accelTime - cruiseTime));
+        }
+
+        // a moving average turns each corner of the trapezoid into a smooth ramp while
+        // keeping the area (the distance travelled) the same
+        double sum = 0;
+        for (int i = 0; i < n; i++)
+        {
+            if (i < samples)
+                sum += raw[i];
+            if (i >= window)
+                sum -= raw[i - window];
+            velocity[i] = sum / window;
+        }
+
+        position[0] = 0;
+        for (int i = 1; i < n; i++)
+            position[i] = position[i - 1] + (velocity[i - 1] + velocity[i]) / 2 * periodMs;
+
+        // remove the error left by sampling, so the profile ends exactly at its target
+        double scale = distance / position[n - 1];
+        for (int i = 0; i < n; i++)
+        {
+            velocity[i] *= scale * direction;
+            position[i] = start + position[i] * scale * direction;
+        }
+        for (int i = 0; i < n; i++)
+        {
+            int before = Math.max(0, i - 1), after = Math.min(n - 1, i + 1);
+            this.acceleration[i] = (after == before) ? 0 : (velocity[after] - velocity[before]) / ((after - before) * periodMs);
+        }
+        position[n - 1] = end;
+        length = n;
+        return true;
+    }
+
+    /**
+     * Removes every point from the profile.
+     */
+    public void clear ()
+    {
+        length = 0;
+    }
+
+    /**
+     * Appends a point to the profile, for streaming a trajectory computed elsewhere.
+     * @param position the target position
+     * @param velocity the target velocity (in units per ms)
+     * @param acceleration the target acceleration (in units per ms per ms)
+     */
+    public void add (double position, double velocity, double acceleration)
+    {
+        ensureCapacity(length + 1);
+        this.position[length] = position;
+        this.velocity[length] = velocity;
+        this.acceleration[length] = acceleration;
+        length++;
+    }
+
+    /**
+     * Gets the index of the point to follow a given time after the profile started. Times
+     * past the end of the profile give the last point, so the mechanism holds its position.
+     * @param elapsedMs the time (in ms) since the profile started
+     * @return the index of the point
+     */
+    public int indexAt (double elapsedMs)
+    {
+        if (length == 0)
+            return -1;
+        int i = (int) (elapsedMs / periodMs);
+        return (i < 0) ? 0 : Math.min(i, length - 1);
+    }
+
+    /**
+     * Determines whether a given time is past the end of the profile.
+     * @param elapsedMs the time (in ms) since the profile started
+     * @return true if the last point has been reached; false otherwise
+     */
+    public boolean isFinished (double elapsedMs)
+    {
+        return elapsedMs >= getDurationMs();
+    }
+
+    /**
+     * @param index the index of the point
+     * @return the target position at the point
+     */
+    public double getPosition (int index)
+    {
+        return position[index];
+    }
+
+    /**
+     * @param index the index of the point
+     * @return the target velocity (in units per ms) at the point
+     */
+    public double getVelocity (int index)
+    {
+        return velocity[index];
+    }
+
+    /**
+     * @param index the index of the point
+     * @return the target acceleration (in units per ms per ms) at the point
+     */
+    public double getAcceleration (int index)
+    {
+        return acceleration[index];
+    }
+
+    /**
+     * @return the number of points in the profile
+     */
+    public int size ()
+    {
+        return length;
+    }
+
+    /**
+     * @return the time (in ms) between consecutive points
+     */
+    public double getPeriodMs ()
+    {
+        return periodMs;
+    }
+
+    /**
+     * @return the time (in ms) from the first point to the last
+     */
+    public double getDurationMs ()
+    {
+        return Math.max(0, length - 1) * periodMs;
+    }
+
+    private void ensureCapacity (int capacity)
+    {
+        if (capacity > position.length)
+        {
+            int size = Math.max(capacity, position.length * 2);
+            position = Arrays.copyOf(position, size);
+            velocity = Arrays.copyOf(velocity, size);
+            acceleration = Arrays.copyOf(acceleration, size);
+        }
+    }
+}
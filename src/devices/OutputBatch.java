@@ -0,0 +1,265 @@
+package devices;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pi4j.wiringpi.Gpio;
+
+import hal.DigitalOutput;
+import hal.Pi4jGpioBackend;
+import hal.PwmOutput;
+import simulation.Simulation;
+
+/**
+ * Collects the output writes made by motors during a tick and applies them together, writing
+ * each pin at most once and skipping pins whose value has not changed since the last flush.
+ * A drivetrain holding its direction then costs one native call per motor per tick (its
+ * speed) rather than three.
+ *
+ * Digital levels are kept as set and clear masks indexed by WiringPi pin number. If byte
+ * writes are enabled, changed levels on pins 0-7 are applied with a single register-level
+ * write; this overwrites every output on those pins, so it must only be enabled when all of
+ * them are written through the batch, and is only used while they all come from a
+ * {@link Pi4jGpioBackend}.
+ *
+ * When batching is disabled (the default), writes are applied immediately but unchanged
+ * values are still skipped. Writes may come from any thread; flushes are serialized.
+ *
+ * Each pin number is written through the output object which last used it, so a device
+ * provisioned on a new backend (or after {@link hal.GpioBackend#setInstance}) takes the pin
+ * over from the one it replaces. Pins numbered outside [0, 63] are written immediately.
+ */
+public class OutputBatch
+{
+    private static final int PINS = Long.SIZE;
+    private static final int UNSET = -1;
+    private static final long BYTE_PINS = 0xFF;
+    private static OutputBatch instance;
+
+    private final DigitalOutput[] digital;
+    private final PwmOutput[] pwm;
+    private final AtomicLong desiredHigh;
+    private final AtomicLong touched;
+    private final AtomicIntegerArray desiredPwm;
+    private final int[] writtenPwm;
+    private long writtenHigh;
+    private long written;
+    private volatile long pwmPins;
+    private volatile long otherPins;
+    private volatile boolean batching;
+    private volatile boolean byteWrites;
+    private volatile long nativeWrites;
+
+    /**
+     * Gets the single instance of the OutputBatch.
+     * @return the instance
+     */
+    public static synchronized OutputBatch getInstance ()
+    {
+        if (instance == null)
+            instance = new OutputBatch();
+        return instance;
+    }
+
+    private OutputBatch ()
+    {
+        digital = new DigitalOutput[PINS];
+        pwm = new PwmOutput[PINS];
+        desiredHigh = new AtomicLong();
+        touched = new AtomicLong();
+        desiredPwm = new AtomicIntegerArray(PINS);
+        writtenPwm = new int[PINS];
+        for (int i = 0; i < PINS; i++)
+        {
+            desiredPwm.set(i, UNSET);
+            writtenPwm[i] = UNSET;
+        }
+    }
+
+    /**
+     * Sets the level of a digital output. Pins are assumed to start low, as they are when
+     * provisioned.
+     * @param pin the pin to write
+     * @param high true to drive the pin high; false to drive it low
+     */
+    public void setState (DigitalOutput pin, boolean high)
+    {
+        int address = pin.getPin();
+        if (address < 0 || address >= PINS)
+        {
+            pin.setState(high);
+            nativeWrites++;
+            return;
+        }
+        long bit = 1l << address;
+        if (digital[address] != pin)
+            register(pin, address);
+        long current;
+        do
+        {
+            current = desiredHigh.get();
+            if (((current & bit) != 0) == high)
+                return; // already written, or waiting to be
+        } while (!desiredHigh.compareAndSet(current, high ? (current | bit) : (current & ~bit)));
+        touch(bit);
+    }
+
+    /**
+     * Sets the duty cycle of a PWM output.
+     * @param pin the pin to write
+     * @param value the PWM value
+     */
+    public void setPwm (PwmOutput pin, int value)
+    {
+        int address = pin.getPin();
+        if (address < 0 || address >= PINS)
+        {
+            pin.setPwm(value);
+            nativeWrites++;
+            return;
+        }
+        long bit = 1l << address;
+        if (pwm[address] != pin)
+            register(pin, address);
+        if (desiredPwm.getAndSet(address, value) != value)
+            touch(bit);
+    }
+
+    /**
+     * Makes a digital output the one written for its pin number, replacing any output which
+     * used the number before. The new output is assumed to start low, as it is when provisioned.
+     */
+    private synchronized void register (DigitalOutput pin, int address)
+    {
+        if (digital[address] == pin)
+            return;
+        long bit = 1l << address;
+        digital[address] = pin;
+        pwm[address] = null;
+        pwmPins &= ~bit;
+        if (pin instanceof Pi4jGpioBackend.WiringPiOutput)
+            otherPins &= ~bit;
+        else
+            otherPins |= bit;
+        long current;
+        do
+        {
+            current = desiredHigh.get();
+        } while (!desiredHigh.compareAndSet(current, current & ~bit));
+        writtenHigh &= ~bit;
+        written |= bit;
+    }
+
+    /**
+     * Makes a PWM output the one written for its pin number, replacing any output which used
+     * the number before. The new output is written on its first write whatever its value.
+     */
+    private synchronized void register (PwmOutput pin, int address)
+    {
+        if (pwm[address] == pin)
+            return;
+        long bit = 1l << address;
+        pwm[address] = pin;
+        digital[address] = null;
+        pwmPins |= bit;
+        desiredPwm.set(address, UNSET);
+        writtenPwm[address] = UNSET;
+    }
+
+    private void touch (long bit)
+    {
+        long current;
+        do
+        {
+            current = touched.get();
+        } while (!touched.compareAndSet(current, current | bit));
+        if (!batching)
+            flush();
+    }
+
+    /**
+     * Applies every write made since the last flush which changed a pin's value.
+     */
+    public synchronized void flush ()
+    {
+        long pending = touched.getAndSet(0);
+        if (pending == 0)
+            return;
+        long high = desiredHigh.get();
+        long levels = pending & ~pwmPins;
+        long changed = levels & (~written | (high ^ writtenHigh));
+
+        if (byteWrites && (changed & BYTE_PINS) != 0 && ((pwmPins | otherPins) & BYTE_PINS) == 0
+                && !Simulation.isEnabled())
+        {
+            // pins 0-7 are all ours, so write their levels at once
+            Gpio.digitalWriteByte((int) (high & BYTE_PINS));
+            nativeWrites++;
+            writtenHigh = (writtenHigh & ~BYTE_PINS) | (high & BYTE_PINS);
+            written |= BYTE_PINS;
+            changed &= ~BYTE_PINS;
+        }
+        for (long mask = changed; mask != 0; mask &= mask - 1)
+        {
+            int address = Long.numberOfTrailingZeros(mask);
+            long bit = 1l << address;
+            boolean level = (high & bit) != 0;
+            digital[address].setState(level);
+            nativeWrites++;
+            writtenHigh = level ? (writtenHigh | bit) : (writtenHigh & ~bit);
+            written |= bit;
+        }
+
+        for (long mask = pending & pwmPins; mask != 0; mask &= mask - 1)
+        {
+            int address = Long.numberOfTrailingZeros(mask);
+            int value = desiredPwm.get(address);
+            if (value != writtenPwm[address])
+            {
+                pwm[address].setPwm(value);
+                nativeWrites++;
+                writtenPwm[address] = value;
+            }
+        }
+    }
+
+    /**
+     * Selects whether writes are held until the next {@link #flush()} rather than applied
+     * immediately. The robot loop flushes once per tick.
+     * @param batching true to hold writes; false to apply them immediately
+     */
+    public void setBatching (boolean batching)
+    {
+        this.batching = batching;
+        if (!batching)
+            flush();
+    }
+
+    /**
+     * @return true if writes are held until the next flush; false otherwise
+     */
+    public boolean isBatching ()
+    {
+        return batching;
+    }
+
+    /**
+     * Selects whether changed levels on WiringPi pins 0-7 are written with a single register
+     * write. Only safe if every output on pins 0-7 is written through this batch; PWM outputs
+     * or outputs from other backends on those pins disable byte writes automatically.
+     * @param enabled true to use byte writes; false to write each pin separately
+     */
+    public void setByteWrites (boolean enabled)
+    {
+        byteWrites = enabled;
+    }
+
+    /**
+     * Gets the number of native writes made, for measuring how many the batch saves.
+     * @return the number of writes made since the program started
+     */
+    public long getWriteCount ()
+    {
+        return nativeWrites;
+    }
+}
@@ -1,9 +1,9 @@
 package devices;
 
-import java.util.HashMap;
-import java.util.Map;
-
-import com.diozero.util.RangeUtil;
+import util.Clock;
+import util.Constants;
+import util.Log;
+import util.MathUtil;
 
 /**
  * Represents a PID controller.
@@ -12,23 +12,63 @@ import com.diozero.util.RangeUtil;
  */
 public class PIDController
 {
-    private Map<Integer, Double> kF;
-    private Map<Integer, Double> kP;
-    private Map<Integer, Double> kI;
-    private Map<Integer, Double> kD;
-    private Map<Integer, Double> iZone;
+    /**
+     * The number of PID slots available.
+     */
+    public static final int SLOTS = 4;
     
-    private int primarySlot;
-    private int auxiliarySlot;
+    /**
+     * The constants stored in a single PID slot. Never modified once constructed, so a
+     * reader always sees a consistent set of gains.
+     */
+    private static final class Gains
+    {
+        final double kF, kP, kI, kD, iZone, maxIntegral;
+        
+        Gains (double kF, double kP, double kI, double kD, double iZone, double maxIntegral)
+        {
+            this.kF = kF;
+            this.kP = kP;
+            this.kI = kI;
+            this.kD = kD;
+            this.iZone = iZone;
+            this.maxIntegral = maxIntegral;
+        }
+    }
+    
+    /**
+     * The gains at every slot. Replaced as a whole whenever a constant changes, so
+     * configuring a slot from another thread never tears a profile.
+     */
+    private volatile Gains[] slots;
+    
+    /**
+     * The state carried between iterations of one loop.
+     */
+    private static final class Loop
+    {
+        double error;
+        double integral; // error * ms
+        double lastActual;
+        double rate; // filtered change in the sensor reading per ms
+        double lastTime; // ms
+        boolean hasRun;
+    }
     
-    private double lastError;
-    private double lastTime;
-    private double errorSum;
-    private boolean hasRun;
+    private volatile int primarySlot;
+    private volatile int auxiliarySlot;
+    private final Loop[] loops;
     
     private double minOutput;
     private double maxOutput;
     
+    private volatile boolean liveTime;
+    private volatile double derivativeFilter; // ms
+    private volatile double rampTime; // ms from neutral to full output
+    private double lastOutput;
+    private double lastOutputTime; // ms
+    private boolean hasOutput;
+    
     /**
      * Constructs a new PIDController.
      * @param minOutput the minimum possible output for the controller to return
@@ -36,29 +76,16 @@ public class PIDController
      */
     public PIDController (double minOutput, double maxOutput)
     {
-        kF = new HashMap<Integer, Double>();
-        kP = new HashMap<Integer, Double>();
-        kI = new HashMap<Integer, Double>();
-        kD = new HashMap<Integer, Double>();
-        iZone = new HashMap<Integer, Double>();
-        setValuesToZero (kF, kP, kI, kD, iZone);
+        Gains zero = new Gains(0, 0, 0, 0, 0, 0);
+        slots = new Gains[SLOTS];
+        for (int i = 0; i < SLOTS; i++)
+            slots[i] = zero;
         
-        errorSum = 0;
-        lastError = 0;
-        hasRun = false;
+        loops = new Loop[] { new Loop(), new Loop() };
         this.minOutput = minOutput;
         this.maxOutput = maxOutput;
     }
     
-    public void setValuesToZero (Map<Integer, Double>... maps)
-    {
-        for (Map<Integer, Double> map : maps)
-        {
-            for (int i = 0; i < 4; i++)
-                map.put(i, 0d);
-        }
-    }
-    
     /**
      * Configures the kF value at a given PID slot.
      * @param kF the value to be stored
@@ -66,9 +93,13 @@ public class PIDController
      * @param timeout the time after which the attempts to send the command cease (if it continually fails
      * to send)
      */
-    public void config_kF(double kF, int slot, int timeout)
+    public synchronized void config_kF(double kF, int slot, int timeout)
     {
-        this.kF.put(slot, kF);
+        if (checkSlot(slot))
+        {
+            Gains g = slots[slot];
+            swapSlot(slot, new Gains(kF, g.kP, g.kI, g.kD, g.iZone, g.maxIntegral));
+        }
     }
     
     /**
@@ -78,9 +109,13 @@ public class PIDController
      * @param timeout the time after which the attempts to send the command cease (if it continually fails
      * to send)
      */
-    public void config_kP(double kP, int slot, int timeout)
+    public synchronized void config_kP(double kP, int slot, int timeout)
     {
-        this.kP.put(slot, kP);
+        if (checkSlot(slot))
+        {
+            Gains g = slots[slot];
+            swapSlot(slot, new Gains(g.kF, kP, g.kI, g.kD, g.iZone, g.maxIntegral));
+        }
     }
     
     /**
@@ -90,9 +125,13 @@ public class PIDController
      * @param timeout the time after which the attempts to send the command cease (if it continually fails
      * to send)
      */
-    public void config_kI(double kI, int slot, int timeout)
+    public synchronized void config_kI(double kI, int slot, int timeout)
     {
-        this.kI.put(slot, kI);
+        if (checkSlot(slot))
+        {
+            Gains g = slots[slot];
+            swapSlot(slot, new Gains(g.kF, g.kP, kI, g.kD, g.iZone, g.maxIntegral));
+        }
     }
     
     /**
@@ -102,21 +141,107 @@ public class PIDController
      * @param timeout the time after which the attempts to send the command cease (if it continually fails
      * to send)
      */
-    public void config_kD(double kD, int slot, int timeout)
+    public synchronized void config_kD(double kD, int slot, int timeout)
     {
-        this.kD.put(slot, kD);
+        if (checkSlot(slot))
+        {
+            Gains g = slots[slot];
+            swapSlot(slot, new Gains(g.kF, g.kP, g.kI, kD, g.iZone, g.maxIntegral));
+        }
     }
     
     /**
-     * Configures the I-Zone value at a given PID slot.
-     * @param iZone the value to be stored
+     * Configures the I-Zone value at a given PID slot. The integral accumulator is cleared
+     * whenever the error is larger than the I-Zone.
+     * @param iZone the value to be stored, or 0 to always integrate
      * @param slot the PID slot at which the constants will be stored [0,3]
      * @param timeout the time after which the attempts to send the command cease (if it continually fails
      * to send)
      */
-    public void config_IntegralZone(double iZone, int slot, int timeout)
+    public synchronized void config_IntegralZone(double iZone, int slot, int timeout)
     {
-        this.iZone.put(slot, iZone);
+        if (checkSlot(slot))
+        {
+            Gains g = slots[slot];
+            swapSlot(slot, new Gains(g.kF, g.kP, g.kI, g.kD, iZone, g.maxIntegral));
+        }
+    }
+    
+    /**
+     * Configures the largest magnitude the integral accumulator may reach at a given PID slot.
+     * @param slot the PID slot at which the constants will be stored [0,3]
+     * @param iaccum the maximum accumulated error (in error * ms), or 0 for no limit
+     * @param timeout the time after which the attempts to send the command cease (if it continually fails
+     * to send)
+     */
+    public synchronized void configMaxIntegralAccumulator(int slot, double iaccum, int timeout)
+    {
+        if (checkSlot(slot))
+        {
+            Gains g = slots[slot];
+            swapSlot(slot, new Gains(g.kF, g.kP, g.kI, g.kD, g.iZone, Math.abs(iaccum)));
+        }
+    }
+    
+    /**
+     * Configures the time constant of the low-pass filter applied to the derivative term.
+     * Larger values reject more sensor noise at the cost of a slower reaction.
+     * @param timeConstant the time constant (in ms), or 0 to disable filtering
+     * @param timeout the time after which the attempts to send the command cease (if it continually fails
+     * to send)
+     */
+    public void configDerivativeFilter(double timeConstant, int timeout)
+    {
+        derivativeFilter = Math.max(0, timeConstant);
+    }
+    
+    /**
+     * Configures how quickly the closed-loop output may change.
+     * @param secondsFromNeutralToFull the minimum time (in s) to go from neutral to full
+     * output, or 0 to disable ramping
+     * @param timeout the time after which the attempts to send the command cease (if it continually fails
+     * to send)
+     */
+    public void configClosedloopRamp(double secondsFromNeutralToFull, int timeout)
+    {
+        rampTime = Math.max(0, secondsFromNeutralToFull) * 1000;
+    }
+    
+    /**
+     * Configures every constant at a given PID slot at once. A loop running on another
+     * thread sees either all of the old constants or all of the new ones.
+     * @param slot the PID slot at which the constants will be stored [0,3]
+     * @param kF the feed-forward gain
+     * @param kP the proportional gain
+     * @param kI the integral gain
+     * @param kD the derivative gain
+     * @param iZone the I-Zone
+     */
+    public synchronized void configProfile(int slot, double kF, double kP, double kI, double kD, double iZone)
+    {
+        if (checkSlot(slot))
+            swapSlot(slot, new Gains(kF, kP, kI, kD, iZone, slots[slot].maxIntegral));
+    }
+    
+    /**
+     * Publishes a new copy of the slot array with one slot replaced. Called while holding
+     * the lock on this controller.
+     */
+    private void swapSlot (int slot, Gains gains)
+    {
+        Gains[] copy = slots.clone();
+        copy[slot] = gains;
+        slots = copy;
+    }
+    
+    private boolean checkSlot (int slot)
+    {
+        if (slot < 0 || slot >= SLOTS)
+        {
+            Log.error(this, "PID slot is not in [0," + (SLOTS - 1) + "]: ", slot, new IllegalArgumentException());
+            return false;
+        }
+        return true;
     }
     
     /**
@@ -126,6 +251,8 @@ public class PIDController
      */
     public void selectProfileSlot(int slotIndex, int loopIndex)
     {
+        if (!checkSlot(slotIndex))
+            return;
         if (loopIndex == 0)
             primarySlot = slotIndex;
         else
@@ -133,7 +260,8 @@ public class PIDController
     }
     
     /**
-     * Gets the necessary motor output given the actual position and the setpoint.
+     * Gets the necessary motor output given the actual position and the setpoint, using the
+     * primary loop.
      * @param actual the current position (likely as input from a sensor such as a gyro
      * or encoder)
      * @param setpoint the desired final position
@@ -141,31 +269,134 @@ public class PIDController
      */
     public double getOutput (double actual, double setpoint)
     {
-        double currentTime = System.currentTimeMillis();
+        return limit(calculate(Constants.PID_PRIMARY, actual, setpoint, setpoint));
+    }
+    
+    /**
+     * Gets the necessary motor output to follow a trajectory using the primary loop, where
+     * the feed-forward gain is applied to a separate target (such as the velocity at the
+     * current point of a motion profile) rather than to the setpoint.
+     * @param actual the current sensor reading
+     * @param setpoint the target of the loop
+     * @param feedForwardTarget the value multiplied by kF
+     * @return the output required for the motors
+     */
+    public double getOutput (double actual, double setpoint, double feedForwardTarget)
+    {
+        return limit(calculate(Constants.PID_PRIMARY, actual, setpoint, feedForwardTarget));
+    }
+    
+    /**
+     * Gets the necessary motor output when running both the primary and the auxiliary loop,
+     * as the sum of their outputs.
+     * @param actual the current reading of the primary sensor
+     * @param setpoint the target of the primary loop
+     * @param auxActual the current reading of the auxiliary sensor
+     * @param auxSetpoint the target of the auxiliary loop
+     * @return the output required for the motors
+     */
+    public double getOutput (double actual, double setpoint, double auxActual, double auxSetpoint)
+    {
+        return limit(calculate(Constants.PID_PRIMARY, actual, setpoint, setpoint)
+                + calculate(Constants.PID_AUXILIARY, auxActual, auxSetpoint, auxSetpoint));
+    }
+    
+    /**
+     * Runs one iteration of a single loop, using the gains of the slot selected for it.
+     * Time is measured in ms, so kI is per unit error per ms and kD per unit change per ms.
+     * @param loopIndex the PID loop index (primary/auxiliary) [0,1]
+     * @param actual the current sensor reading
+     * @param setpoint the target
+     * @param feedForwardTarget the value multiplied by kF
+     * @return the unconstrained output of the loop
+     */
+    private double calculate (int loopIndex, double actual, double setpoint, double feedForwardTarget)
+    {
+        Loop loop = loops[loopIndex];
+        Gains g = slots[(loopIndex == Constants.PID_PRIMARY) ? primarySlot : auxiliarySlot];
+        double currentTime = now();
         double error = setpoint - actual;
         
-        double output_F = kF.get(primarySlot) * setpoint;
+        double integral = loop.integral;
+        double step = 0;
+        if (loop.hasRun && currentTime > loop.lastTime)
+        {
+            double dt = currentTime - loop.lastTime;
+            step = (error + loop.error) / 2 * dt;
+            
+            // derivative on measurement, so setpoint changes do not kick the output
+            double rate = (actual - loop.lastActual) / dt;
+            loop.rate += (rate - loop.rate) * dt / (derivativeFilter + dt);
+        }
+        if (g.iZone != 0 && Math.abs(error) > g.iZone)
+        {
+            integral = 0;
+            step = 0;
+        }
         
-        double output_P = kP.get(primarySlot) * error;
+        double output_F = g.kF * feedForwardTarget;
+        double output_P = g.kP * error;
+        double output_D = -g.kD * loop.rate;
+        double output_I = g.kI * integral;
         
-        double output_I = 0;
-        double output_D = 0; 
-        if (hasRun) {
-            if (Math.abs(error) >= iZone.get(primarySlot))
-                errorSum = 0;
-            double output_I = kI.get(primarySlot) * errorSum;
-            errorSum += error * (currentTime - lastTime);
-            
-            output_D = -kD.get(primarySlot) * (error - lastError) 
-                    / (currentTime - lastTime);
+        // clamping anti-windup: stop integrating while the output is saturated in the
+        // direction the error would push it further
+        double output = output_F + output_P + output_I + output_D + g.kI * step;
+        boolean saturated = (output > maxOutput && error > 0) || (output < minOutput && error < 0);
+        if (!saturated)
+        {
+            integral += step;
+            if (g.maxIntegral != 0)
+                integral = MathUtil.restrictValue(integral, -g.maxIntegral, g.maxIntegral);
+            output = output_F + output_P + g.kI * integral + output_D;
         }
-
-        lastError = error;
-        lastTime = currentTime;
-        hasRun = true;
-
+        else
+            output -= g.kI * step;
         
-        return RangeUtil.constrain(output_F + output_P + output_I + output_D, minOutput, maxOutput);
+        loop.integral = integral;
+        loop.error = error;
+        loop.lastActual = actual;
+        loop.lastTime = currentTime;
+        loop.hasRun = true;
+        return output;
+    }
+    
+    /**
+     * Constrains an output to the controller's range and, if a closed-loop ramp is
+     * configured, to the change allowed since the last output.
+     */
+    private double limit (double output)
+    {
+        double currentTime = now();
+        output = MathUtil.restrictValue(output, minOutput, maxOutput);
+        if (rampTime > 0 && hasOutput)
+        {
+            double maxStep = Math.max(0, currentTime - lastOutputTime) / rampTime;
+            output = MathUtil.restrictValue(output, lastOutput - maxStep, lastOutput + maxStep);
+        }
+        lastOutput = output;
+        lastOutputTime = currentTime;
+        hasOutput = true;
+        return output;
+    }
+    
+    /**
+     * Gets the time (in ms) used by the loops: the start of the current robot tick, so that
+     * every loop sees the same time, or the live time if the loops run on their own thread.
+     */
+    double now ()
+    {
+        return Clock.toMillis(liveTime ? Clock.now() : Clock.tickTime());
+    }
+    
+    /**
+     * Selects whether the loops are timed against the live clock rather than the robot tick.
+     * Set when the loops are run by a {@link ControlLoopExecutor} at their own rate.
+     * @param live true to use the live clock; false to use the robot tick
+     */
+    void useLiveTime (boolean live)
+    {
+        liveTime = live;
     }
     
     /**
@@ -176,6 +407,29 @@ public class PIDController
      */
     public double getClosedLoopError (double loopIndex, double timeout)
     {
-        return lastError;
+        return loops[(int) loopIndex].error;
+    }
+    
+    /**
+     * Gets the accumulated error of a loop.
+     * @param loopIndex the PID loop index (primary/auxiliary) [0,1]
+     * @return the integral accumulator (in error * ms)
+     */
+    public double getIntegralAccumulator (int loopIndex)
+    {
+        return loops[loopIndex].integral;
+    }
+    
+    /**
+     * Sets the accumulated error of a loop, for instance to clear it when a new setpoint
+     * is given.
+     * @param iaccum the new value of the accumulator (in error * ms)
+     * @param loopIndex the PID loop index (primary/auxiliary) [0,1]
+     * @param timeout the time after which the attempts to send the command cease (if it continually fails
+     * to send)
+     */
+    public void setIntegralAccumulator (double iaccum, int loopIndex, int timeout)
+    {
+        loops[loopIndex].integral = iaccum;
     }
 }
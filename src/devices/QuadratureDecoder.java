@@ -0,0 +1,118 @@
+package devices;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes the two channels of a quadrature encoder into a count, using a table of every
+ * possible transition between channel states.
+ *
+ * The levels of both channels are packed into a single atomic value, so edges reported
+ * concurrently by several listener threads are each applied exactly once, in some order,
+ * and the count can be read from any thread without tearing. Each edge only uses the new
+ * level reported with it, never reading the other pin, so a decoder can keep up with
+ * edges as fast as they are delivered.
+ *
+ * An edge reporting the level its channel already has means a pair of edges on that channel
+ * was missed (the level went the other way and back). The direction of the missed pair
+ * cannot be known, so such edges do not change the count and are tallied as errors instead.
+ */
+public class QuadratureDecoder
+{
+    /**
+     * The channel wired to the orange encoder wire.
+     */
+    public static final int CHANNEL_A = 1;
+
+    /**
+     * The channel wired to the brown encoder wire.
+     */
+    public static final int CHANNEL_B = 0;
+
+    /**
+     * The change in count for each transition, indexed by (previous state << 2 | new state),
+     * where a state is (A << 1 | B). Forward rotation steps through 00, 10, 11, 01. An edge
+     * only changes one channel, so the transitions changing both are never looked up.
+     */
+    private static final int[] TRANSITIONS = {
+        //  to 00   01      10      11
+            0,      -1,     1,      0,      // from 00
+            1,      0,      0,      -1,     // from 01
+            -1,     0,      0,      1,      // from 10
+            0,      1,      -1,     0,      // from 11
+    };
+
+    private final AtomicInteger state;
+    private final AtomicLong count;
+    private final AtomicLong errors;
+
+    /**
+     * Constructs a new QuadratureDecoder with both channels low.
+     */
+    public QuadratureDecoder ()
+    {
+        this(false, false);
+    }
+
+    /**
+     * Constructs a new QuadratureDecoder.
+     * @param a the initial level of channel A
+     * @param b the initial level of channel B
+     */
+    public QuadratureDecoder (boolean a, boolean b)
+    {
+        state = new AtomicInteger((a ? 1 << CHANNEL_A : 0) | (b ? 1 << CHANNEL_B : 0));
+        count = new AtomicLong();
+        errors = new AtomicLong();
+    }
+
+    /**
+     * Applies an edge on one channel.
+     * @param channel the channel which changed ({@link #CHANNEL_A} or {@link #CHANNEL_B})
+     * @param high the new level of the channel
+     * @return the change in count caused by the edge (-1, 0 or 1)
+     */
+    public int edge (int channel, boolean high)
+    {
+        int bit = 1 << channel;
+        int previous, next;
+        do
+        {
+            previous = state.get();
+            next = high ? (previous | bit) : (previous & ~bit);
+            if (next == previous)
+            {
+                errors.incrementAndGet();
+                return 0;
+            }
+        } while (!state.compareAndSet(previous, next));
+
+        int delta = TRANSITIONS[(previous << 2) | next];
+        count.addAndGet(delta);
+        return delta;
+    }
+
+    /**
+     * @return the number of counts moved forward, less those moved backward
+     */
+    public long getCount ()
+    {
+        return count.get();
+    }
+
+    /**
+     * @return the number of edges which showed that a pair of edges was missed
+     */
+    public long getErrorCount ()
+    {
+        return errors.get();
+    }
+
+    /**
+     * Sets the count to zero, keeping the error count.
+     */
+    public void reset ()
+    {
+        count.set(0);
+    }
+}
@@ -1,13 +1,9 @@
 package devices;
 
 import com.diozero.api.OutputDeviceInterface;
-import com.pi4j.io.gpio.GpioController;
-import com.pi4j.io.gpio.GpioFactory;
-import com.pi4j.io.gpio.GpioPinPwmOutput;
-import com.pi4j.io.gpio.PinPullResistance;
-import com.pi4j.io.gpio.PinState;
-import com.pi4j.io.gpio.RaspiPin;
-import com.pi4j.wiringpi.Gpio;
+
+import hal.GpioBackend;
+import hal.PwmOutput;
 
 /**
  * Represents a Servo motor.
@@ -16,25 +12,36 @@ import com.pi4j.wiringpi.Gpio;
  */
 public class Servo implements OutputDeviceInterface
 {
-    private GpioPinPwmOutput servoPort;
+    /**
+     * The frequency of the servo signal (in Hz). With {@link #PWM_RANGE}, each step of the
+     * servo value lengthens the pulse by 10 us.
+     */
+    public static final double PWM_FREQUENCY = 19.2e6 / 192 / 1024;
+
+    /**
+     * The servo value corresponding to a 100% duty cycle.
+     */
+    public static final int PWM_RANGE = 1024;
+
+    private PwmOutput servoPort;
     
     /**
-     * Constructs a new Servo.
+     * Constructs a new Servo using the default {@link GpioBackend}.
      * @param pin the PWM pin number, based on WiringPi convention
      */
     public Servo (int pin)
     {
-        GpioController gpio = GpioFactory.getInstance();
-        
-        //servoPort = gpio.provisionSoftPwmOutputPin(RaspiPin.getPinByAddress(pin));
-        
-        servoPort = gpio.provisionPwmOutputPin(RaspiPin.getPinByAddress(pin));
-        
-        Gpio.pwmSetMode(Gpio.PWM_MODE_MS);
-        Gpio.pwmSetRange(1024);
-        Gpio.pwmSetClock(192);
+        this(pin, GpioBackend.getInstance());
+    }
 
-        servoPort.setShutdownOptions(true, PinState.LOW, PinPullResistance.OFF);
+    /**
+     * Constructs a new Servo.
+     * @param pin the PWM pin number, based on WiringPi convention
+     * @param backend the backend which generates the signal
+     */
+    public Servo (int pin, GpioBackend backend)
+    {
+        servoPort = backend.provisionPwmOutput(pin, PWM_FREQUENCY, PWM_RANGE);
     }
 
     /**
@@ -44,6 +51,6 @@ public class Servo implements OutputDeviceInterface
     @Override
     public void setValue(float value)
     {
-        servoPort.setPwm((int) (value));
+        OutputBatch.getInstance().setPwm(servoPort, (int) (value));
     }
 }
@@ -7,6 +7,7 @@ import java.util.Map;
 import com.diozero.api.*;
 
 import util.Constants;
+import util.FlightRecorder;
 import util.MathUtil;
 
 
@@ -19,7 +20,32 @@ public class TalonSRX extends PIDController
 {
     private FeedbackSensor[] selectedSensors;
     private Map<FeedbackDevice, FeedbackSensor> sensors; 
-    private double prevOutput;
+    private volatile double prevOutput;
+    
+    /**
+     * The time (in ms) between points of a Motion Magic profile.
+     */
+    private static final double MOTION_MAGIC_PERIOD_MS = 5;
+    
+    private final MotionProfile magicProfile = new MotionProfile(MOTION_MAGIC_PERIOD_MS);
+    private volatile MotionProfile streamedProfile;
+    private volatile double cruiseVelocity;
+    private volatile double motionAcceleration;
+    private volatile int sCurveStrength;
+    private double magicTarget;
+    private double profileStart; // ms
+    private volatile MotionProfile activeProfile;
+    private volatile int activeIndex = -1;
+    private ControlMode lastMode;
+    private boolean profileEnabled;
+    
+    private volatile ControlLoopExecutor executor;
+    private volatile int pendingSeq;
+    private volatile ControlMode pendingMode;
+    private volatile double pendingMagnitude;
+    private volatile DemandType pendingType;
+    private volatile double pendingValue;
+    private int recorderChannel;
 
     
     /**
@@ -46,6 +72,20 @@ public class TalonSRX extends PIDController
          */
         Velocity, 
         
+        /**
+         * Specifies that the Talon should move to a given position as read by the primary
+         * sensor, following a profile generated from the configured cruise velocity,
+         * acceleration and S-curve strength.
+         */
+        MotionMagic,
+        
+        /**
+         * Specifies that the Talon should follow the profile given to loadMotionProfile().
+         * A value of 0 disables the output; any other value follows the profile from the
+         * moment the mode is entered.
+         */
+        MotionProfile,
+        
         /**
          * Specifies that the Talon should be disabled.
          */
@@ -62,7 +102,13 @@ public class TalonSRX extends PIDController
         /**
          * Specifies an arbitrary feed forward to always be added to the motor output.
          */
-        FeedForward;
+        FeedForward,
+        
+        /**
+         * Specifies a target for the auxiliary PID loop, which closes the loop on the
+         * position of the auxiliary sensor and adds its output to the motor output.
+         */
+        AuxPID;
     }
     
     /**
@@ -91,7 +137,7 @@ public class TalonSRX extends PIDController
     {
         super (-1, 1);
         motor = new DigitalMotor(forwardPort, backwardPort, enablePort);
-        initializeVariables();
+        initializeVariables(enablePort);
     }
     
     /**
@@ -103,16 +149,21 @@ public class TalonSRX extends PIDController
     {
         super (-1, 1);
         motor = new Servo(port);
-        initializeVariables();
+        initializeVariables(port);
     }
     
     /**
-     * Initializes variables which are independent of motor type.
+     * Initializes variables which are independent of motor type, and names the Talon in flight
+     * recordings after its port, recording its primary sensor position every tick.
      */
-    private void initializeVariables()
+    private void initializeVariables(int port)
     {
         selectedSensors = new FeedbackSensor[2];
         sensors = new HashMap<FeedbackDevice, FeedbackSensor>();
+        recorderChannel = FlightRecorder.channel("TalonSRX " + port);
+        FlightRecorder.addSample("TalonSRX " + port + " position",
+                () -> selectedSensors[Constants.PID_PRIMARY] != null
+                        ? selectedSensors[Constants.PID_PRIMARY].getPosition() : Double.NaN);
     }
     /**
      * Sets the Talon to a given output.
@@ -121,6 +172,18 @@ public class TalonSRX extends PIDController
      * @param magnitude the magnitude of the value to be set
      */
     public void set(ControlMode mode, double magnitude)
+    {
+        FlightRecorder.recordOutput(recorderChannel, mode.ordinal(), magnitude, -1, 0);
+        if (executor != null)
+            publish(mode, magnitude, null, 0);
+        else
+            apply(mode, magnitude);
+    }
+    
+    /**
+     * Computes and writes the output for a control mode without a demand type.
+     */
+    private void apply(ControlMode mode, double magnitude)
     {
         double output = 0;
         
@@ -143,6 +206,14 @@ public class TalonSRX extends PIDController
                 throw new RuntimeException("Velocity control mode only supported for digital motors.");
             
         }
+        else if (mode == ControlMode.MotionMagic || mode == ControlMode.MotionProfile)
+        {
+            if (motor instanceof DigitalMotor)
+                output = followProfile(mode, magnitude);
+            else
+                throw new RuntimeException("Motion profile control modes only supported for digital motors.");
+        }
+        lastMode = mode;
         prevOutput = output;
         motor.setValue((float) output);
     }
@@ -151,10 +222,28 @@ public class TalonSRX extends PIDController
      * Sets the Talon to a given output.
      * @param mode the mode of control to be performed on the Talon (including % output, velocity, and position)
      * @param magnitude the magnitude of the value to be set
-     * @param dt the demand type to be added to the output (like a feed forward or an auxiliary sensor value)
+     * @param dt the demand type to be added to the output (like a feed forward or an auxiliary sensor value),
+     * or null for none
      * @param demandValue the magnitude of the demand type
      */
     public void set(ControlMode mode, double magnitude, DemandType dt, double demandValue)
+    {
+        if (dt == null)
+        {
+            set(mode, magnitude);
+            return;
+        }
+        FlightRecorder.recordOutput(recorderChannel, mode.ordinal(), magnitude, dt.ordinal(), demandValue);
+        if (executor != null && !(motor instanceof Servo))
+            publish(mode, magnitude, dt, demandValue);
+        else
+            apply(mode, magnitude, dt, demandValue);
+    }
+    
+    /**
+     * Computes and writes the output for a control mode with a demand type.
+     */
+    private void apply(ControlMode mode, double magnitude, DemandType dt, double demandValue)
     {
         if (!(motor instanceof Servo))
         {
@@ -163,15 +252,22 @@ public class TalonSRX extends PIDController
             {
                 output = magnitude;
             }
-            else if (mode == ControlMode.Position)
+            else if (mode == ControlMode.Position || mode == ControlMode.Velocity)
             {
-                output = getOutput(getSelectedSensorPosition(Constants.PID_PRIMARY, Constants.TIMEOUT), magnitude);
+                double actual = (mode == ControlMode.Position)
+                        ? getSelectedSensorPosition(Constants.PID_PRIMARY, Constants.TIMEOUT)
+                        : getSelectedSensorVelocity(Constants.PID_PRIMARY, Constants.TIMEOUT);
+                if (dt == DemandType.AuxPID)
+                    output = getOutput(actual, magnitude,
+                            getSelectedSensorPosition(Constants.PID_AUXILIARY, Constants.TIMEOUT), demandValue);
+                else
+                    output = getOutput(actual, magnitude);
             }
-            else if (mode == ControlMode.Velocity)
+            else if (mode == ControlMode.MotionMagic || mode == ControlMode.MotionProfile)
             {
-                output = getOutput(getSelectedSensorVelocity(Constants.PID_PRIMARY, Constants.TIMEOUT), magnitude);
-                
+                output = followProfile(mode, magnitude);
             }
+            lastMode = mode;
             output = ((dt == DemandType.FeedForward) ? (output + demandValue) : output);
             prevOutput = output;
             motor.setValue((float) output );
@@ -180,6 +276,193 @@ public class TalonSRX extends PIDController
             throw new RuntimeException("Demand types not supported for Servo motors.");
     }
     
+    /**
+     * Computes the output needed to follow the active profile, generating a new Motion
+     * Magic profile from the current position whenever the target changes. The position
+     * loop tracks the profile point for the current time, and kF is applied to the velocity
+     * at that point.
+     */
+    private double followProfile(ControlMode mode, double value)
+    {
+        double actual = getSelectedSensorPosition(Constants.PID_PRIMARY, Constants.TIMEOUT);
+        double now = now();
+        if (mode == ControlMode.MotionMagic)
+        {
+            if (lastMode != mode || value != magicTarget)
+            {
+                if (magicProfile.generate(actual, value, cruiseVelocity, motionAcceleration, sCurveStrength / 8.0))
+                {
+                    magicTarget = value;
+                    profileStart = now;
+                }
+                else
+                    magicTarget = Double.NaN; // the empty profile holds neutral; retry on the next set
+            }
+            activeProfile = magicProfile;
+        }
+        else
+        {
+            if (value == 0)
+            {
+                activeProfile = null;
+                activeIndex = -1;
+                profileEnabled = false;
+                return 0;
+            }
+            // restart the profile when the mode is entered or re-enabled
+            if (lastMode != mode || !profileEnabled)
+            {
+                activeProfile = streamedProfile;
+                profileStart = now;
+                profileEnabled = true;
+            }
+        }
+        
+        MotionProfile profile = activeProfile;
+        if (profile == null || profile.size() == 0)
+            return 0;
+        int i = profile.indexAt(now - profileStart);
+        activeIndex = i;
+        return getOutput(actual, profile.getPosition(i), profile.getVelocity(i));
+    }
+    
+    /**
+     * Configures the cruise velocity used by Motion Magic.
+     * @param sensorUnitsPerMs the largest speed (in sensor units per ms) of a move
+     * @param timeout the time after which the attempts to send the command cease (if it continually fails
+     * to send)
+     */
+    public void configMotionCruiseVelocity(double sensorUnitsPerMs, int timeout)
+    {
+        cruiseVelocity = sensorUnitsPerMs;
+    }
+    
+    /**
+     * Configures the acceleration used by Motion Magic.
+     * @param sensorUnitsPerMsPerMs the rate (in sensor units per ms per ms) at which a move
+     * speeds up and slows down
+     * @param timeout the time after which the attempts to send the command cease (if it continually fails
+     * to send)
+     */
+    public void configMotionAcceleration(double sensorUnitsPerMsPerMs, int timeout)
+    {
+        motionAcceleration = sensorUnitsPerMsPerMs;
+    }
+    
+    /**
+     * Configures how much Motion Magic smooths the corners of its profile, limiting jerk.
+     * @param strength 0 for a trapezoidal profile, up to 8 for the smoothest S-curve
+     * @param timeout the time after which the attempts to send the command cease (if it continually fails
+     * to send)
+     */
+    public void configMotionSCurveStrength(int strength, int timeout)
+    {
+        sCurveStrength = Math.max(0, Math.min(8, strength));
+    }
+    
+    /**
+     * Gives the Talon a profile to follow in {@link ControlMode#MotionProfile}. Takes effect
+     * the next time the mode is entered, so the profile should not be modified while it is
+     * being followed.
+     * @param profile the profile to follow
+     */
+    public void loadMotionProfile(MotionProfile profile)
+    {
+        streamedProfile = profile;
+    }
+    
+    /**
+     * Gets the position of the profile point currently being followed.
+     * @return the target position, or 0 if no profile is active
+     */
+    public double getActiveTrajectoryPosition()
+    {
+        MotionProfile profile = activeProfile;
+        int i = activeIndex;
+        return (profile != null && i >= 0 && i < profile.size()) ? profile.getPosition(i) : 0;
+    }
+    
+    /**
+     * Gets the velocity of the profile point currently being followed.
+     * @return the target velocity (in sensor units per ms), or 0 if no profile is active
+     */
+    public double getActiveTrajectoryVelocity()
+    {
+        MotionProfile profile = activeProfile;
+        int i = activeIndex;
+        return (profile != null && i >= 0 && i < profile.size()) ? profile.getVelocity(i) : 0;
+    }
+    
+    /**
+     * Determines whether the active profile has reached its last point.
+     * @return true if the last point is being followed or no profile is active; false otherwise
+     */
+    public boolean isMotionProfileFinished()
+    {
+        MotionProfile profile = activeProfile;
+        return profile == null || activeIndex >= profile.size() - 1;
+    }
+    
+    /**
+     * Publishes a new setpoint for the control thread. Only one thread may call this at a time;
+     * the sequence number is odd while the setpoint is being written, so the control thread
+     * can tell when it has read a torn setpoint and retry.
+     */
+    private void publish(ControlMode mode, double magnitude, DemandType dt, double demandValue)
+    {
+        pendingSeq++;
+        pendingMode = mode;
+        pendingMagnitude = magnitude;
+        pendingType = dt;
+        pendingValue = demandValue;
+        pendingSeq++;
+    }
+    
+    /**
+     * Runs one iteration of the closed loop with the latest published setpoint. Called by the
+     * {@link ControlLoopExecutor} which owns this Talon.
+     */
+    void runControlLoop()
+    {
+        int seq;
+        ControlMode mode;
+        double magnitude, demandValue;
+        DemandType dt;
+        do
+        {
+            seq = pendingSeq;
+            mode = pendingMode;
+            magnitude = pendingMagnitude;
+            dt = pendingType;
+            demandValue = pendingValue;
+        } while ((seq & 1) != 0 || seq != pendingSeq);
+        
+        if (mode == null)
+            return;
+        if (dt == null)
+            apply(mode, magnitude);
+        else
+            apply(mode, magnitude, dt, demandValue);
+    }
+    
+    /**
+     * Gets the executor which runs this Talon's closed loop.
+     * @return the executor, or null if the loop runs whenever set() is called
+     */
+    public ControlLoopExecutor getExecutor()
+    {
+        return executor;
+    }
+    
+    /**
+     * Hands this Talon's closed loop to an executor, or back to set() if null.
+     */
+    void setExecutor(ControlLoopExecutor executor)
+    {
+        useLiveTime(executor != null);
+        this.executor = executor;
+    }
+    
     /**
      * Sets up the Encoder by specifying its GPIO location
      * @param orangePin the orange pin for the encoder
@@ -0,0 +1,25 @@
+package hal;
+
+/**
+ * A digital input pin, read by polling or through edge callbacks.
+ */
+public interface DigitalInput
+{
+    /**
+     * Gets the pin this input reads.
+     * @return the pin number, in WiringPi convention
+     */
+    int getPin ();
+
+    /**
+     * Reads the level of the pin.
+     * @return true if the pin is high; false otherwise
+     */
+    boolean isHigh ();
+
+    /**
+     * Adds a listener to be called whenever the level of the pin changes.
+     * @param listener the listener to add
+     */
+    void addListener (EdgeListener listener);
+}
@@ -0,0 +1,19 @@
+package hal;
+
+/**
+ * A digital output pin, driven high or low by a {@link GpioBackend}.
+ */
+public interface DigitalOutput
+{
+    /**
+     * Gets the pin this output drives.
+     * @return the pin number, in WiringPi convention
+     */
+    int getPin ();
+
+    /**
+     * Drives the pin high or low.
+     * @param high true to drive the pin high; false to drive it low
+     */
+    void setState (boolean high);
+}
@@ -0,0 +1,16 @@
+package hal;
+
+/**
+ * Receives the changes in level of a {@link DigitalInput}. Called on a thread owned by the
+ * {@link GpioBackend}, so implementations should return quickly and must be thread-safe.
+ */
+public interface EdgeListener
+{
+    /**
+     * Called when the level of an input changes.
+     * @param pin the pin which changed, in WiringPi convention
+     * @param high true if the pin is now high; false if it is now low
+     * @param nanos the time of the edge (in ns), as given by {@link util.Clock#now()}
+     */
+    void edge (int pin, boolean high, long nanos);
+}
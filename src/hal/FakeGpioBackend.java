@@ -0,0 +1,192 @@
+package hal;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import util.Clock;
+
+/**
+ * Keeps every pin in memory, so that the values written by devices can be checked, and their
+ * inputs driven, without any GPIO hardware or provider. Edges are reported to listeners on the
+ * thread which drives the input, before {@link #setInput(int, boolean)} returns.
+ */
+public class FakeGpioBackend extends GpioBackend
+{
+    private static final int PINS = Long.SIZE;
+
+    private final AtomicIntegerArray states;
+    private final AtomicIntegerArray pwms;
+    private final AtomicIntegerArray ranges;
+    private final AtomicReferenceArray<FakeDigitalInput> inputs;
+
+    private final class FakeDigitalOutput implements DigitalOutput
+    {
+        private final int pin;
+
+        private FakeDigitalOutput (int pin)
+        {
+            this.pin = pin;
+        }
+
+        @Override
+        public int getPin ()
+        {
+            return pin;
+        }
+
+        @Override
+        public void setState (boolean high)
+        {
+            states.set(pin, high ? 1 : 0);
+        }
+    }
+
+    private final class FakeDigitalInput implements DigitalInput
+    {
+        private final int pin;
+        private final List<EdgeListener> listeners;
+
+        private FakeDigitalInput (int pin)
+        {
+            this.pin = pin;
+            this.listeners = new CopyOnWriteArrayList<EdgeListener>();
+        }
+
+        @Override
+        public int getPin ()
+        {
+            return pin;
+        }
+
+        @Override
+        public boolean isHigh ()
+        {
+            return states.get(pin) != 0;
+        }
+
+        @Override
+        public void addListener (EdgeListener listener)
+        {
+            listeners.add(listener);
+        }
+    }
+
+    private final class FakePwmOutput implements PwmOutput
+    {
+        private final int pin;
+
+        private FakePwmOutput (int pin)
+        {
+            this.pin = pin;
+        }
+
+        @Override
+        public int getPin ()
+        {
+            return pin;
+        }
+
+        @Override
+        public void setPwm (int value)
+        {
+            pwms.set(pin, value);
+        }
+
+        @Override
+        public int getRange ()
+        {
+            return ranges.get(pin);
+        }
+    }
+
+    /**
+     * Constructs a new FakeGpioBackend with every pin low.
+     */
+    public FakeGpioBackend ()
+    {
+        states = new AtomicIntegerArray(PINS);
+        pwms = new AtomicIntegerArray(PINS);
+        ranges = new AtomicIntegerArray(PINS);
+        inputs = new AtomicReferenceArray<FakeDigitalInput>(PINS);
+    }
+
+    @Override
+    public String getName ()
+    {
+        return "fake";
+    }
+
+    @Override
+    public DigitalOutput provisionDigitalOutput (int pin)
+    {
+        states.set(pin, 0);
+        return new FakeDigitalOutput(pin);
+    }
+
+    @Override
+    public PwmOutput provisionPwmOutput (int pin, double frequency, int range)
+    {
+        ranges.set(pin, range);
+        pwms.set(pin, 0);
+        return new FakePwmOutput(pin);
+    }
+
+    @Override
+    public DigitalInput provisionDigitalInput (int pin, PullResistance pull)
+    {
+        states.set(pin, pull == PullResistance.PULL_UP ? 1 : 0);
+        FakeDigitalInput input = new FakeDigitalInput(pin);
+        inputs.set(pin, input);
+        return input;
+    }
+
+    /**
+     * Drives the level of a digital input, notifying its listeners if the level changed.
+     * @param pin the pin number, in WiringPi convention
+     * @param high true to drive the pin high; false to drive it low
+     */
+    public void setInput (int pin, boolean high)
+    {
+        int level = high ? 1 : 0;
+        FakeDigitalInput input = inputs.get(pin);
+        if (states.getAndSet(pin, level) != level && input != null)
+        {
+            long now = Clock.now();
+            for (EdgeListener l : input.listeners)
+                l.edge(pin, high, now);
+        }
+    }
+
+    /**
+     * Determines whether a digital pin is high.
+     * @param pin the pin number, in WiringPi convention
+     * @return true if the pin was last driven high; false otherwise
+     */
+    public boolean getState (int pin)
+    {
+        return states.get(pin) != 0;
+    }
+
+    /**
+     * Gets the value last written to a PWM output.
+     * @param pin the pin number, in WiringPi convention
+     * @return the PWM value
+     */
+    public int getPwm (int pin)
+    {
+        return pwms.get(pin);
+    }
+
+    /**
+     * Gets the duty cycle last written to a PWM output.
+     * @param pin the pin number, in WiringPi convention
+     * @return the duty cycle [0, 1], or 0 if the pin is not a PWM output
+     */
+    public double getDutyCycle (int pin)
+    {
+        int range = ranges.get(pin);
+        return range == 0 ? 0 : Math.max(0, Math.min(1, (double) pwms.get(pin) / range));
+    }
+}
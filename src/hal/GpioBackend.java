@@ -0,0 +1,113 @@
+package hal;
+
+import simulation.Simulation;
+import util.FlightRecorder;
+import util.Log;
+
+/**
+ * The hardware abstraction layer through which every device reaches its GPIO pins. Each
+ * backend talks to the pins through a different library, so the choice trades latency and
+ * CPU time against what is installed on the robot:
+ * <ul>
+ * <li>{@link Pi4jGpioBackend} uses Pi4J and WiringPi. PWM uses the Raspberry Pi's PWM
+ * hardware on the pins which have it, and a software PWM thread per pin elsewhere.</li>
+ * <li>{@link PigpioGpioBackend} uses the pigpio library (the same one behind diozero's pigpio
+ * provider), which times PWM by DMA on every pin and samples inputs every few microseconds,
+ * so no pin needs a thread.</li>
+ * <li>{@link FakeGpioBackend} keeps every pin in memory, for testing.</li>
+ * </ul>
+ *
+ * A device can be given a backend when it is constructed; otherwise it uses the shared
+ * instance, which is chosen at startup by the {@code wpiraspi.gpio} system property
+ * ({@code pi4j}, {@code pigpio} or {@code fake}) and defaults to Pi4J. When the robot is
+ * simulated, the default is always Pi4J, which reaches the simulated GPIO provider. If the
+ * {@link FlightRecorder} is recording when the default is chosen, it is wrapped in a
+ * {@link RecordingGpioBackend} so that every input is recorded.
+ *
+ * Pins are given in WiringPi convention, whichever backend is used.
+ */
+public abstract class GpioBackend
+{
+    /**
+     * The system property naming the default backend.
+     */
+    public static final String PROPERTY = "wpiraspi.gpio";
+
+    private static GpioBackend instance;
+
+    /**
+     * Provisions a digital output, initially low.
+     * @param pin the pin number, in WiringPi convention
+     * @return the output
+     */
+    public abstract DigitalOutput provisionDigitalOutput (int pin);
+
+    /**
+     * Provisions a PWM output, initially off.
+     * @param pin the pin number, in WiringPi convention
+     * @param frequency the desired frequency of the signal (in Hz)
+     * @param range the value which will correspond to a 100% duty cycle
+     * @return the output
+     */
+    public abstract PwmOutput provisionPwmOutput (int pin, double frequency, int range);
+
+    /**
+     * Provisions a digital input.
+     * @param pin the pin number, in WiringPi convention
+     * @param pull the resistor to apply to the pin
+     * @return the input
+     */
+    public abstract DigitalInput provisionDigitalInput (int pin, PullResistance pull);
+
+    /**
+     * Gets the name of this backend, as given to {@link #forName(String)}.
+     * @return the name
+     */
+    public abstract String getName ();
+
+    /**
+     * Gets the backend used by devices which were not given one, creating it if necessary.
+     * @return the shared backend
+     */
+    public static synchronized GpioBackend getInstance ()
+    {
+        if (instance == null)
+        {
+            instance = forName(Simulation.isEnabled() ? "pi4j" : System.getProperty(PROPERTY, "pi4j"));
+            if (FlightRecorder.isRecording())
+                instance = new RecordingGpioBackend(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Replaces the backend used by devices which were not given one. Should be called
+     * before any device is constructed.
+     * @param backend the new backend
+     */
+    public static synchronized void setInstance (GpioBackend backend)
+    {
+        instance = backend;
+    }
+
+    /**
+     * Creates a backend from its name.
+     * @param name the name of the backend ("pi4j", "pigpio" or "fake")
+     * @return the new backend, or a Pi4J backend if the name is not recognized
+     */
+    public static GpioBackend forName (String name)
+    {
+        switch (name.trim().toLowerCase())
+        {
+            case "pi4j":
+                return new Pi4jGpioBackend();
+            case "pigpio":
+                return new PigpioGpioBackend();
+            case "fake":
+                return new FakeGpioBackend();
+            default:
+                Log.warn(GpioBackend.class, "Unknown GPIO backend; using pi4j: ", name);
+                return new Pi4jGpioBackend();
+        }
+    }
+}
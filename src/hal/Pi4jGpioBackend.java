@@ -0,0 +1,205 @@
+package hal;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioFactory;
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.GpioPinPwmOutput;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiPin;
+import com.pi4j.io.gpio.event.GpioPinListenerDigital;
+import com.pi4j.wiringpi.Gpio;
+
+import simulation.Simulation;
+import util.Clock;
+import util.Log;
+
+/**
+ * Reaches the pins through Pi4J and WiringPi. Edges on inputs are reported from Pi4J's event
+ * threads, after WiringPi's interrupt thread has noticed them, so they arrive later than
+ * with pigpio. PWM outputs on pins with PWM hardware (WiringPi
+ * 1, 23, 24 and 26) use the hardware; other pins fall back to WiringPi's software PWM, which
+ * runs a thread per pin, always has a 100 Hz period and only has 100 steps of resolution.
+ *
+ * The PWM hardware has one clock and one range for every pin, so all hardware outputs must
+ * share a frequency and range; the first hardware output provisioned sets them.
+ */
+public class Pi4jGpioBackend extends GpioBackend
+{
+    private static final double PWM_CLOCK = 19.2e6;
+    private static final int SOFT_PWM_RANGE = 100;
+    private static final int[] HARDWARE_PWM_PINS = { 1, 23, 24, 26 };
+
+    private int hardwareRange;
+    private int hardwareDivisor;
+
+    /**
+     * A digital output written through WiringPi. Outputs on pins 0-7 may also be written
+     * together with {@link Gpio#digitalWriteByte(int)}.
+     */
+    public static final class WiringPiOutput implements DigitalOutput
+    {
+        private final GpioPinDigitalOutput pin;
+
+        private WiringPiOutput (GpioPinDigitalOutput pin)
+        {
+            this.pin = pin;
+        }
+
+        @Override
+        public int getPin ()
+        {
+            return pin.getPin().getAddress();
+        }
+
+        @Override
+        public void setState (boolean high)
+        {
+            pin.setState(high);
+        }
+    }
+
+    private static final class Pi4jDigitalInput implements DigitalInput
+    {
+        private final GpioPinDigitalInput pin;
+
+        private Pi4jDigitalInput (GpioPinDigitalInput pin)
+        {
+            this.pin = pin;
+        }
+
+        @Override
+        public int getPin ()
+        {
+            return pin.getPin().getAddress();
+        }
+
+        @Override
+        public boolean isHigh ()
+        {
+            return pin.isHigh();
+        }
+
+        @Override
+        public void addListener (EdgeListener listener)
+        {
+            int address = getPin();
+            pin.addListener((GpioPinListenerDigital) event -> listener.edge(address, event.getState() == PinState.HIGH,
+                    Clock.now()));
+        }
+    }
+
+    private static final class Pi4jPwmOutput implements PwmOutput
+    {
+        private final GpioPinPwmOutput pin;
+        private final int range;
+        private final int nativeRange;
+
+        private Pi4jPwmOutput (GpioPinPwmOutput pin, int range, int nativeRange)
+        {
+            this.pin = pin;
+            this.range = range;
+            this.nativeRange = nativeRange;
+        }
+
+        @Override
+        public int getPin ()
+        {
+            return pin.getPin().getAddress();
+        }
+
+        @Override
+        public void setPwm (int value)
+        {
+            pin.setPwm(range == nativeRange ? value : (int) (((long) value * nativeRange + range / 2) / range));
+        }
+
+        @Override
+        public int getRange ()
+        {
+            return range;
+        }
+    }
+
+    /**
+     * Constructs a new Pi4jGpioBackend, loading the native GPIO library.
+     */
+    public Pi4jGpioBackend ()
+    {
+        GpioFactory.getInstance();
+    }
+
+    @Override
+    public String getName ()
+    {
+        return "pi4j";
+    }
+
+    @Override
+    public DigitalOutput provisionDigitalOutput (int pin)
+    {
+        GpioController gpio = GpioFactory.getInstance();
+        GpioPinDigitalOutput output = gpio.provisionDigitalOutputPin(RaspiPin.getPinByAddress(pin), PinState.LOW);
+        output.setShutdownOptions(true, PinState.LOW, PinPullResistance.OFF);
+        return new WiringPiOutput(output);
+    }
+
+    @Override
+    public synchronized PwmOutput provisionPwmOutput (int pin, double frequency, int range)
+    {
+        GpioController gpio = GpioFactory.getInstance();
+        GpioPinPwmOutput output;
+        int nativeRange;
+        if (isHardwarePwm(pin))
+        {
+            output = gpio.provisionPwmOutputPin(RaspiPin.getPinByAddress(pin));
+            int divisor = (int) Math.max(2, Math.min(4095, Math.round(PWM_CLOCK / (frequency * range))));
+            if (hardwareRange == 0)
+            {
+                hardwareRange = range;
+                hardwareDivisor = divisor;
+                if (!Simulation.isEnabled())
+                {
+                    Gpio.pwmSetMode(Gpio.PWM_MODE_MS);
+                    Gpio.pwmSetClock(divisor);
+                }
+                output.setPwmRange(range);
+            }
+            else if (hardwareRange != range || hardwareDivisor != divisor)
+                Log.warn(this, "Hardware PWM must share the frequency of the first hardware PWM output; ignoring the "
+                        + "frequency requested on pin ", pin);
+            nativeRange = hardwareRange;
+        }
+        else
+        {
+            output = gpio.provisionSoftPwmOutputPin(RaspiPin.getPinByAddress(pin));
+            nativeRange = SOFT_PWM_RANGE;
+        }
+        output.setShutdownOptions(true, PinState.LOW, PinPullResistance.OFF);
+        return new Pi4jPwmOutput(output, range, nativeRange);
+    }
+
+    @Override
+    public DigitalInput provisionDigitalInput (int pin, PullResistance pull)
+    {
+        GpioController gpio = GpioFactory.getInstance();
+        GpioPinDigitalInput input = gpio.provisionDigitalInputPin(RaspiPin.getPinByAddress(pin),
+                PinPullResistance.valueOf(pull.name()));
+        input.setShutdownOptions(true, PinState.LOW, PinPullResistance.OFF);
+        return new Pi4jDigitalInput(input);
+    }
+
+    /**
+     * Determines whether a pin has PWM hardware.
+     * @param pin the pin number, in WiringPi convention
+     * @return true if the pin can output hardware PWM; false otherwise
+     */
+    public static boolean isHardwarePwm (int pin)
+    {
+        for (int p : HARDWARE_PWM_PINS)
+            if (p == pin)
+                return true;
+        return false;
+    }
+}
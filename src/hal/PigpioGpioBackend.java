@@ -0,0 +1,215 @@
+package hal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import uk.pigpioj.PigpioConstants;
+import uk.pigpioj.PigpioInterface;
+import uk.pigpioj.PigpioJ;
+import util.Clock;
+import util.Log;
+
+/**
+ * Reaches the pins through the pigpio library, either in-process or through the pigpiod
+ * daemon (if the {@code PIGPIOD_HOST} system property is set). This is the library behind
+ * diozero's pigpio provider, called directly rather than through diozero's device classes.
+ * Inputs are sampled by DMA and their edges reported from a single callback thread.
+ *
+ * PWM outputs on pins with PWM hardware (WiringPi 1, 23, 24 and 26) use the hardware at any
+ * frequency and full resolution; other pins are timed by DMA, which needs no thread but only
+ * supports the frequencies pigpio's sample rate allows, so the nearest one is used.
+ *
+ * pigpio numbers pins by their Broadcom GPIO number, so pins are translated from WiringPi
+ * convention when they are provisioned. Every output is driven low when the program exits.
+ */
+public class PigpioGpioBackend extends GpioBackend
+{
+    private static final int HARDWARE_DUTY_RANGE = 1000000;
+
+    /**
+     * The Broadcom GPIO number of each WiringPi pin.
+     */
+    private static final int[] BCM_PINS = { 17, 18, 27, 22, 23, 24, 25, 4, 2, 3, 8, 7, 10, 9, 11, 14, 15, 28, 29,
+            30, 31, 5, 6, 13, 19, 26, 12, 16, 20, 21, 0, 1 };
+
+    private final PigpioInterface pigpio;
+    private final List<Integer> provisioned;
+
+    private final class PigpioDigitalOutput implements DigitalOutput
+    {
+        private final int pin, gpio;
+
+        private PigpioDigitalOutput (int pin, int gpio)
+        {
+            this.pin = pin;
+            this.gpio = gpio;
+        }
+
+        @Override
+        public int getPin ()
+        {
+            return pin;
+        }
+
+        @Override
+        public void setState (boolean high)
+        {
+            check(pigpio.write(gpio, high), pin);
+        }
+    }
+
+    private final class PigpioDigitalInput implements DigitalInput
+    {
+        private final int pin, gpio;
+        private final List<EdgeListener> listeners;
+
+        private PigpioDigitalInput (int pin, int gpio)
+        {
+            this.pin = pin;
+            this.gpio = gpio;
+            this.listeners = new CopyOnWriteArrayList<EdgeListener>();
+        }
+
+        @Override
+        public int getPin ()
+        {
+            return pin;
+        }
+
+        @Override
+        public boolean isHigh ()
+        {
+            return pigpio.read(gpio) == PigpioConstants.PI_ON;
+        }
+
+        @Override
+        public synchronized void addListener (EdgeListener listener)
+        {
+            if (listeners.isEmpty())
+                check(pigpio.enableListener(gpio, PigpioConstants.EITHER_EDGE, (g, high, epochTime, nanoTime) ->
+                {
+                    long now = Clock.now();
+                    for (EdgeListener l : listeners)
+                        l.edge(pin, high, now);
+                }), pin);
+            listeners.add(listener);
+        }
+    }
+
+    private final class PigpioPwmOutput implements PwmOutput
+    {
+        private final int pin, gpio, range, frequency;
+        private final boolean hardware;
+
+        private PigpioPwmOutput (int pin, int gpio, int frequency, int range, boolean hardware)
+        {
+            this.pin = pin;
+            this.gpio = gpio;
+            this.frequency = frequency;
+            this.range = range;
+            this.hardware = hardware;
+        }
+
+        @Override
+        public int getPin ()
+        {
+            return pin;
+        }
+
+        @Override
+        public void setPwm (int value)
+        {
+            int duty = Math.max(0, Math.min(range, value));
+            if (hardware)
+                check(pigpio.hardwarePwm(gpio, frequency, (int) ((long) duty * HARDWARE_DUTY_RANGE / range)), pin);
+            else
+                check(pigpio.setPWMDutyCycle(gpio, duty), pin);
+        }
+
+        @Override
+        public int getRange ()
+        {
+            return range;
+        }
+    }
+
+    /**
+     * Constructs a new PigpioGpioBackend, connecting to pigpio.
+     */
+    public PigpioGpioBackend ()
+    {
+        pigpio = PigpioJ.getImplementation();
+        provisioned = new ArrayList<Integer>();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "pigpio-shutdown"));
+    }
+
+    @Override
+    public String getName ()
+    {
+        return "pigpio";
+    }
+
+    @Override
+    public synchronized DigitalOutput provisionDigitalOutput (int pin)
+    {
+        int gpio = toBcm(pin);
+        check(pigpio.setMode(gpio, PigpioConstants.MODE_PI_OUTPUT), pin);
+        check(pigpio.write(gpio, false), pin);
+        provisioned.add(gpio);
+        return new PigpioDigitalOutput(pin, gpio);
+    }
+
+    @Override
+    public synchronized PwmOutput provisionPwmOutput (int pin, double frequency, int range)
+    {
+        int gpio = toBcm(pin);
+        boolean hardware = Pi4jGpioBackend.isHardwarePwm(pin);
+        check(pigpio.setMode(gpio, PigpioConstants.MODE_PI_OUTPUT), pin);
+        if (hardware)
+            check(pigpio.hardwarePwm(gpio, (int) Math.round(frequency), 0), pin);
+        else
+        {
+            check(pigpio.setPWMFrequency(gpio, (int) Math.round(frequency)), pin);
+            check(pigpio.setPWMRange(gpio, range), pin);
+            check(pigpio.setPWMDutyCycle(gpio, 0), pin);
+        }
+        provisioned.add(gpio);
+        return new PigpioPwmOutput(pin, gpio, (int) Math.round(frequency), range, hardware);
+    }
+
+    @Override
+    public DigitalInput provisionDigitalInput (int pin, PullResistance pull)
+    {
+        int gpio = toBcm(pin);
+        check(pigpio.setMode(gpio, PigpioConstants.MODE_PI_INPUT), pin);
+        check(pigpio.setPullUpDown(gpio, pull == PullResistance.PULL_UP ? PigpioConstants.PI_PUD_UP
+                : pull == PullResistance.PULL_DOWN ? PigpioConstants.PI_PUD_DOWN : PigpioConstants.PI_PUD_OFF), pin);
+        return new PigpioDigitalInput(pin, gpio);
+    }
+
+    /**
+     * Converts a pin number from WiringPi convention to its Broadcom GPIO number.
+     * @param pin the pin number, in WiringPi convention
+     * @return the Broadcom GPIO number
+     */
+    public static int toBcm (int pin)
+    {
+        if (pin < 0 || pin >= BCM_PINS.length)
+            throw new IllegalArgumentException("No GPIO for WiringPi pin " + pin);
+        return BCM_PINS[pin];
+    }
+
+    private synchronized void shutdown ()
+    {
+        for (int gpio : provisioned)
+            pigpio.write(gpio, false);
+        pigpio.close();
+    }
+
+    private static void check (int result, int pin)
+    {
+        if (result < 0)
+            Log.error(PigpioGpioBackend.class, "pigpio call failed: ", "error " + result + " on pin " + pin);
+    }
+}
@@ -0,0 +1,22 @@
+package hal;
+
+/**
+ * The internal resistor applied to a {@link DigitalInput}.
+ */
+public enum PullResistance
+{
+    /**
+     * No resistor; the pin floats when nothing drives it.
+     */
+    OFF,
+
+    /**
+     * Pulls the pin low when nothing drives it.
+     */
+    PULL_DOWN,
+
+    /**
+     * Pulls the pin high when nothing drives it.
+     */
+    PULL_UP;
+}
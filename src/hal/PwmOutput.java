@@ -0,0 +1,27 @@
+package hal;
+
+/**
+ * A PWM output pin, whose duty cycle is given as a value out of a fixed range. The range is
+ * chosen when the pin is provisioned, so callers write the same values whichever
+ * {@link GpioBackend} generates the signal.
+ */
+public interface PwmOutput
+{
+    /**
+     * Gets the pin this output drives.
+     * @return the pin number, in WiringPi convention
+     */
+    int getPin ();
+
+    /**
+     * Sets the duty cycle of the output.
+     * @param value the time the pulse is high, out of {@link #getRange()}
+     */
+    void setPwm (int value);
+
+    /**
+     * Gets the value corresponding to a 100% duty cycle.
+     * @return the range of the output
+     */
+    int getRange ();
+}
@@ -0,0 +1,61 @@
+package hal;
+
+import util.FlightRecorder;
+
+/**
+ * Passes every call through to another backend, and records the level of every digital input
+ * it provisions, and every edge on those inputs, with the {@link FlightRecorder}. Outputs are
+ * returned unchanged, so they cost nothing extra.
+ *
+ * {@link GpioBackend#getInstance()} wraps the default backend in one of these when a
+ * recording is in progress as it is created.
+ */
+public class RecordingGpioBackend extends GpioBackend
+{
+    private final GpioBackend backend;
+
+    /**
+     * Constructs a new RecordingGpioBackend.
+     * @param backend the backend through which the pins are reached
+     */
+    public RecordingGpioBackend (GpioBackend backend)
+    {
+        this.backend = backend;
+    }
+
+    @Override
+    public DigitalOutput provisionDigitalOutput (int pin)
+    {
+        return backend.provisionDigitalOutput(pin);
+    }
+
+    @Override
+    public PwmOutput provisionPwmOutput (int pin, double frequency, int range)
+    {
+        return backend.provisionPwmOutput(pin, frequency, range);
+    }
+
+    @Override
+    public DigitalInput provisionDigitalInput (int pin, PullResistance pull)
+    {
+        DigitalInput input = backend.provisionDigitalInput(pin, pull);
+        FlightRecorder.recordInput(pin, input.isHigh());
+        input.addListener(FlightRecorder::recordEdge);
+        return input;
+    }
+
+    @Override
+    public String getName ()
+    {
+        return backend.getName();
+    }
+
+    /**
+     * Gets the backend through which the pins are reached.
+     * @return the backend
+     */
+    public GpioBackend getBackend ()
+    {
+        return backend;
+    }
+}
@@ -0,0 +1,94 @@
+package simulation;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.pi4j.concurrent.ExecutorServiceFactory;
+
+/**
+ * Makes Pi4J deliver pin events on the thread which caused them rather than on its event
+ * thread pool, so that a simulated edge has been fully handled by the time the simulation
+ * moves on. This keeps the simulation deterministic.
+ */
+class DirectExecutorServiceFactory implements ExecutorServiceFactory
+{
+    private final ExecutorService direct = new AbstractExecutorService() {
+        private volatile boolean shutdown;
+
+        @Override
+        public void execute (Runnable command)
+        {
+            command.run();
+        }
+
+        @Override
+        public void shutdown ()
+        {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow ()
+        {
+            shutdown = true;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown ()
+        {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated ()
+        {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination (long timeout, TimeUnit unit)
+        {
+            return true;
+        }
+    };
+
+    private ScheduledExecutorService scheduled;
+
+    @Override
+    public synchronized ScheduledExecutorService getScheduledExecutorService ()
+    {
+        if (scheduled == null)
+            scheduled = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "simulation-scheduled");
+                t.setDaemon(true);
+                return t;
+            });
+        return scheduled;
+    }
+
+    @Override
+    public ExecutorService getGpioEventExecutorService ()
+    {
+        return direct;
+    }
+
+    @Override
+    @Deprecated
+    public ExecutorService newSingleThreadExecutorService ()
+    {
+        return direct;
+    }
+
+    @Override
+    public synchronized void shutdown ()
+    {
+        if (scheduled != null)
+            scheduled.shutdownNow();
+    }
+}
@@ -0,0 +1,135 @@
+package simulation;
+
+import java.io.IOException;
+
+import hal.FakeGpioBackend;
+import hal.GpioBackend;
+import hal.RecordingGpioBackend;
+import util.Clock;
+import util.FlightRecorder;
+import util.FlightRecording;
+import util.SocketReader;
+
+/**
+ * Replays a match recorded by the {@link FlightRecorder}, so that a failure on the field can be
+ * reproduced (and the code which failed benchmarked) without the robot. The clock is replaced
+ * with a virtual one starting at the time the recording started, and the GPIO backend with a
+ * {@link FakeGpioBackend}. As the clock advances, every recorded input edge is driven on the
+ * fake backend at the time it was recorded, so sensors, position triggers and velocity
+ * measurement see exactly what they saw on the field, and every recorded socket message is
+ * delivered to the {@link SocketReader} in time for the tick which read it. Outputs, samples
+ * and command events are not replayed, since the robot code produces them again; recording
+ * the replay as well makes the two easy to compare.
+ *
+ * {@link #enable(String)} must be called before any device is constructed, and cannot be
+ * combined with {@link Simulation}. The robot then runs as it would on the field, only faster.
+ */
+public class Replay
+{
+    private static boolean enabled;
+    private static FlightRecording recording;
+    private static FakeGpioBackend backend;
+    private static ReplayClock clock;
+    private static boolean pending;
+    private static long replayedCount;
+
+    /**
+     * Enables replay of a recording.
+     * @param path the recording
+     * @throws IOException if the recording cannot be read
+     */
+    public static synchronized void enable (String path) throws IOException
+    {
+        if (enabled)
+            throw new IllegalStateException("Replay has already been enabled.");
+        if (Simulation.isEnabled())
+            throw new IllegalStateException("Replay cannot be combined with simulation.");
+        recording = new FlightRecording(path);
+        backend = new FakeGpioBackend();
+        GpioBackend.setInstance(FlightRecorder.isRecording() ? new RecordingGpioBackend(backend) : backend);
+        clock = new ReplayClock(recording.getStartTime());
+        Clock.setInstance(clock);
+        pending = nextInput();
+        enabled = true;
+    }
+
+    /**
+     * Determines whether a recording is being replayed.
+     * @return true if replay has been enabled; false otherwise
+     */
+    public static boolean isEnabled ()
+    {
+        return enabled;
+    }
+
+    /**
+     * Gets the backend on which inputs are driven.
+     * @return the backend, or null if replay is not enabled
+     */
+    public static FakeGpioBackend getBackend ()
+    {
+        return backend;
+    }
+
+    /**
+     * Determines whether every recorded input has been replayed.
+     * @return true if the clock has passed the last recorded input; false otherwise
+     */
+    public static synchronized boolean isFinished ()
+    {
+        return enabled && !pending;
+    }
+
+    /**
+     * Gets the number of recorded inputs replayed so far.
+     * @return the number of edges and messages replayed
+     */
+    public static synchronized long getReplayedCount ()
+    {
+        return replayedCount;
+    }
+
+    /**
+     * Replays every input recorded up to a given time, moving the clock to the time of each in
+     * turn. Called by the replay clock as it advances.
+     * @param time the time (in ns) the clock is advancing to
+     */
+    static synchronized void replayUntil (long time)
+    {
+        while (pending && recording.getTime() <= time)
+        {
+            clock.moveTo(recording.getTime());
+            switch (recording.getKind())
+            {
+                case INPUT:
+                case EDGE:
+                    backend.setInput(recording.getChannel(), recording.getCode() != 0);
+                    break;
+                default:
+                    SocketReader.getServer().deliver(recording.getText());
+            }
+            replayedCount++;
+            pending = nextInput();
+        }
+    }
+
+    /**
+     * Moves the recording to the next input edge or message.
+     * @return true if there is one; false if the end of the recording has been reached
+     */
+    private static boolean nextInput ()
+    {
+        while (recording.next())
+        {
+            switch (recording.getKind())
+            {
+                case INPUT:
+                case EDGE:
+                case MESSAGE:
+                    return true;
+                default:
+            }
+        }
+        return false;
+    }
+}
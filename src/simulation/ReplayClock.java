@@ -0,0 +1,37 @@
+package simulation;
+
+import util.VirtualClock;
+
+/**
+ * A virtual clock which replays every recorded input as it is advanced past the time the
+ * input was recorded, so inputs arrive at the same times relative to the robot loop as they
+ * did on the field.
+ */
+class ReplayClock extends VirtualClock
+{
+    /**
+     * Constructs a new ReplayClock.
+     * @param start the time (in ns) at which the recording started
+     */
+    ReplayClock (long start)
+    {
+        super(start);
+    }
+
+    @Override
+    public synchronized void advanceTo (long time)
+    {
+        Replay.replayUntil(time);
+        super.advanceTo(time);
+    }
+
+    /**
+     * Moves the clock forward without replaying anything. Called by the replay as it reaches
+     * each input.
+     * @param time the new time (in ns)
+     */
+    void moveTo (long time)
+    {
+        super.advanceTo(time);
+    }
+}
@@ -0,0 +1,106 @@
+package simulation;
+
+import com.pi4j.io.gpio.GpioProviderBase;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinMode;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiGpioProvider;
+
+/**
+ * A stand-in for the Raspberry Pi GPIO provider which keeps every pin in memory. Outputs
+ * written by devices can be read back by the simulation, and the simulation can drive
+ * inputs, which notifies any listeners exactly as a real edge would.
+ *
+ * The provider reports the same name as the real Raspberry Pi provider, so the usual
+ * {@link com.pi4j.io.gpio.RaspiPin} pins can be provisioned on it.
+ */
+public class SimulatedGpioProvider extends GpioProviderBase
+{
+    private static final int HARDWARE_PWM_RANGE = 1024;
+    private static final int SOFT_PWM_RANGE = 100;
+
+    private final int[] pwmRanges = new int[Long.SIZE];
+
+    @Override
+    public String getName ()
+    {
+        return RaspiGpioProvider.NAME;
+    }
+
+    @Override
+    public void export (Pin pin, PinMode mode)
+    {
+        super.export(pin, mode);
+        if (getPinCache(pin).getState() == null) // pins start out pulled low
+            getPinCache(pin).setState(PinState.LOW);
+    }
+
+    @Override
+    public void setPwm (Pin pin, int value)
+    {
+        getPinCache(pin).setPwmValue(value);
+    }
+
+    @Override
+    public int getPwm (Pin pin)
+    {
+        return getPinCache(pin).getPwmValue();
+    }
+
+    @Override
+    public void setPwmRange (Pin pin, int range)
+    {
+        pwmRanges[pin.getAddress()] = range;
+    }
+
+    /**
+     * Sets the state of an input pin, notifying its listeners if the state changed.
+     * @param pin the pin to drive
+     * @param state the new state
+     */
+    public void setInput (Pin pin, PinState state)
+    {
+        if (getPinCache(pin).getState() != state)
+        {
+            getPinCache(pin).setState(state);
+            dispatchPinDigitalStateChangeEvent(pin, state);
+        }
+    }
+
+    /**
+     * Determines whether a digital output pin is currently high.
+     * @param pin the pin to check
+     * @return true if the pin is high; false otherwise
+     */
+    public boolean isHigh (Pin pin)
+    {
+        return getPinCache(pin).getState() == PinState.HIGH;
+    }
+
+    /**
+     * Gets the duty cycle last written to a PWM pin.
+     * @param pin the pin to check
+     * @return the PWM value, or 0 if the pin is not a PWM output
+     */
+    public int getPwmValue (Pin pin)
+    {
+        PinMode mode = getPinCache(pin).getMode();
+        if (mode != PinMode.PWM_OUTPUT && mode != PinMode.SOFT_PWM_OUTPUT)
+            return 0;
+        return Math.max(0, getPinCache(pin).getPwmValue());
+    }
+
+    /**
+     * Gets the duty cycle last written to a PWM pin, using the range set for the pin or the
+     * default range of its mode (1024 for hardware PWM and 100 for software PWM).
+     * @param pin the pin to check
+     * @return the duty cycle [0, 1], or 0 if the pin is not a PWM output
+     */
+    public double getDutyCycle (Pin pin)
+    {
+        int range = pwmRanges[pin.getAddress()];
+        if (range == 0)
+            range = getPinCache(pin).getMode() == PinMode.PWM_OUTPUT ? HARDWARE_PWM_RANGE : SOFT_PWM_RANGE;
+        return Math.min(1, (double) getPwmValue(pin) / range);
+    }
+}
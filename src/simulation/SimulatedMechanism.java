@@ -0,0 +1,15 @@
+package simulation;
+
+/**
+ * Represents a physical part of the robot whose behaviour is modelled by the simulation.
+ * Mechanisms read the outputs written by the robot code and drive the inputs it reads.
+ */
+public interface SimulatedMechanism
+{
+    /**
+     * Advances the model by one time step. Called on the thread which advances the
+     * simulation clock.
+     * @param dt the length of the step (in s)
+     */
+    void step (double dt);
+}
@@ -0,0 +1,108 @@
+package simulation;
+
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiPin;
+
+/**
+ * Models a DC motor driven through an H-bridge (as by {@link devices.DigitalMotor}), with an
+ * optional quadrature encoder on its shaft.
+ *
+ * The motor responds to its output as a first-order system: its speed approaches
+ * output * free speed with the given time constant. Every whole count the shaft moves is
+ * emitted as an edge on the encoder pins, so the robot's encoder code runs exactly as it
+ * would on the robot.
+ */
+public class SimulatedMotor implements SimulatedMechanism
+{
+    private final SimulatedGpioProvider gpio;
+    private final Pin forward, backward, enable;
+    private final double freeSpeed;
+    private final double timeConstant;
+    private Pin orange, brown;
+
+    private double velocity;
+    private double position;
+    private long count;
+
+    /**
+     * Constructs a new SimulatedMotor and adds it to the simulation.
+     * @param forward the forward digital pin, in WiringPi convention
+     * @param backward the backward digital pin, in WiringPi convention
+     * @param enable the enable PWM pin, in WiringPi convention
+     * @param freeSpeed the speed (in encoder counts per second) at full output
+     * @param timeConstant the time (in s) taken to reach 63% of a new speed
+     */
+    public SimulatedMotor (int forward, int backward, int enable, double freeSpeed, double timeConstant)
+    {
+        this.gpio = Simulation.getProvider();
+        this.forward = RaspiPin.getPinByAddress(forward);
+        this.backward = RaspiPin.getPinByAddress(backward);
+        this.enable = RaspiPin.getPinByAddress(enable);
+        this.freeSpeed = freeSpeed;
+        this.timeConstant = timeConstant;
+        Simulation.addMechanism(this);
+    }
+
+    /**
+     * Attaches a quadrature encoder to the motor shaft.
+     * @param orangePort the pin into which the orange encoder wire is plugged in
+     * @param brownPort the pin into which the brown encoder wire is plugged in
+     * @return this motor
+     */
+    public SimulatedMotor withEncoder (int orangePort, int brownPort)
+    {
+        this.orange = RaspiPin.getPinByAddress(orangePort);
+        this.brown = RaspiPin.getPinByAddress(brownPort);
+        return this;
+    }
+
+    @Override
+    public void step (double dt)
+    {
+        boolean f = gpio.isHigh(forward), b = gpio.isHigh(backward);
+        double magnitude = gpio.getDutyCycle(enable);
+        double output = (f == b) ? 0 : (f ? magnitude : -magnitude);
+
+        velocity += (output * freeSpeed - velocity) * (1 - Math.exp(-dt / timeConstant));
+        position += velocity * dt;
+
+        if (orange != null)
+        {
+            long target = (long) Math.floor(position);
+            while (count < target)
+                emit(++count);
+            while (count > target)
+                emit(--count);
+        }
+    }
+
+    /**
+     * Drives the encoder pins to the quadrature state for a given count. Consecutive counts
+     * differ in exactly one channel, so each call produces a single edge.
+     */
+    private void emit (long count)
+    {
+        int phase = (int) Math.floorMod(count, 4l);
+        gpio.setInput(orange, (phase == 1 || phase == 2) ? PinState.HIGH : PinState.LOW);
+        gpio.setInput(brown, (phase == 2 || phase == 3) ? PinState.HIGH : PinState.LOW);
+    }
+
+    /**
+     * Gets the true shaft position.
+     * @return the position (in encoder counts)
+     */
+    public double getPosition ()
+    {
+        return position;
+    }
+
+    /**
+     * Gets the true shaft speed.
+     * @return the velocity (in encoder counts per second)
+     */
+    public double getVelocity ()
+    {
+        return velocity;
+    }
+}
@@ -0,0 +1,101 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.pi4j.io.gpio.GpioFactory;
+
+import util.Clock;
+
+/**
+ * Lets robot code run off a Raspberry Pi, faster than real time, by replacing the GPIO
+ * provider with an in-memory {@link SimulatedGpioProvider} and the clock with a virtual one.
+ * Mechanisms added to the simulation are stepped every time the clock advances.
+ *
+ * {@link #enable()} must be called before any device is constructed.
+ */
+public class Simulation
+{
+    /**
+     * The default length (in ms) of each physics step.
+     */
+    public static final double DEFAULT_STEP_MS = 1;
+
+    private static boolean enabled;
+    private static SimulatedGpioProvider provider;
+    private static SimulationClock clock;
+    private static final List<SimulatedMechanism> mechanisms = new ArrayList<SimulatedMechanism>();
+
+    /**
+     * Enables simulation with the default physics step.
+     */
+    public static void enable ()
+    {
+        enable(DEFAULT_STEP_MS);
+    }
+
+    /**
+     * Enables simulation.
+     * @param stepMs the length (in ms) of each physics step
+     */
+    public static synchronized void enable (double stepMs)
+    {
+        if (enabled)
+            throw new IllegalStateException("Simulation has already been enabled.");
+        provider = new SimulatedGpioProvider();
+        clock = new SimulationClock((long) (stepMs * 1e6));
+        GpioFactory.setExecutorServiceFactory(new DirectExecutorServiceFactory());
+        GpioFactory.setDefaultProvider(provider);
+        Clock.setInstance(clock);
+        enabled = true;
+    }
+
+    /**
+     * Determines whether the robot is being simulated.
+     * @return true if simulation has been enabled; false otherwise
+     */
+    public static boolean isEnabled ()
+    {
+        return enabled;
+    }
+
+    /**
+     * Gets the in-memory GPIO provider.
+     * @return the provider, or null if simulation is not enabled
+     */
+    public static SimulatedGpioProvider getProvider ()
+    {
+        return provider;
+    }
+
+    /**
+     * Adds a mechanism to be stepped as the clock advances.
+     * @param mechanism the mechanism to add
+     */
+    public static void addMechanism (SimulatedMechanism mechanism)
+    {
+        if (!enabled)
+            throw new IllegalStateException("Simulation must be enabled before mechanisms are added.");
+        mechanisms.add(mechanism);
+    }
+
+    /**
+     * Advances the simulation by a given amount of time, stepping every mechanism. Useful
+     * when driving the simulation without a {@link commandbased.TimedRobot}.
+     * @param ms the amount (in ms) to advance
+     */
+    public static void advance (double ms)
+    {
+        clock.advance((long) (ms * 1e6));
+    }
+
+    /**
+     * Steps every mechanism. Called by the simulation clock.
+     * @param dt the length of the step (in s)
+     */
+    static void step (double dt)
+    {
+        for (int i = 0; i < mechanisms.size(); i++)
+            mechanisms.get(i).step(dt);
+    }
+}
@@ -0,0 +1,35 @@
+package simulation;
+
+import util.VirtualClock;
+
+/**
+ * A virtual clock which steps every simulated mechanism in fixed increments as it is
+ * advanced, so the physics always sees the same time steps however the robot loop
+ * is configured.
+ */
+class SimulationClock extends VirtualClock
+{
+    private final long stepNanos;
+
+    /**
+     * Constructs a new SimulationClock.
+     * @param stepNanos the length (in ns) of each physics step
+     */
+    SimulationClock (long stepNanos)
+    {
+        this.stepNanos = stepNanos;
+    }
+
+    @Override
+    public synchronized void advanceTo (long time)
+    {
+        long now = nanoTime();
+        while (now < time)
+        {
+            long next = Math.min(time, now + stepNanos);
+            Simulation.step((next - now) / 1e9);
+            super.advanceTo(next);
+            now = next;
+        }
+    }
+}
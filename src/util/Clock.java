@@ -0,0 +1,114 @@
+package util;
+
+/**
+ * A monotonic source of time shared by the whole framework. Commands, controllers,
+ * sensors and the robot loop all read time through this class rather than from the
+ * system directly, so the source can be swapped (for instance, for a
+ * {@link VirtualClock} in simulation).
+ *
+ * Besides the live time, the clock holds a tick timestamp which the robot loop samples
+ * once at the start of every tick. Code running as part of a tick should use
+ * {@link #tickTime()}, so that every consumer sees the same timestamp for the same tick.
+ * Code running outside the loop (such as a sensor listener) should use {@link #now()}.
+ *
+ * All times are in nanoseconds, with an arbitrary origin.
+ */
+public abstract class Clock
+{
+    private static volatile Clock instance = new SystemClock();
+    private static volatile long tickNanos;
+    private static volatile boolean ticking;
+
+    /**
+     * Gets the current time of this clock.
+     * @return the time (in ns)
+     */
+    public abstract long nanoTime ();
+
+    /**
+     * Blocks the calling thread until this clock reaches the given time.
+     * @param deadline the time (in ns) at which to return
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public abstract void sleepUntil (long deadline) throws InterruptedException;
+
+    /**
+     * Determines whether this clock follows real time. Virtual clocks only move when
+     * something sleeps on them, so the robot loop can run faster than real time.
+     * @return true if the clock is virtual; false otherwise
+     */
+    public boolean isVirtual ()
+    {
+        return false;
+    }
+
+    /**
+     * Gets the clock in use.
+     * @return the current clock
+     */
+    public static Clock getInstance ()
+    {
+        return instance;
+    }
+
+    /**
+     * Replaces the clock in use. Should be called before anything reads the time.
+     * @param clock the new clock
+     */
+    public static void setInstance (Clock clock)
+    {
+        instance = clock;
+        ticking = false;
+    }
+
+    /**
+     * Gets the current time.
+     * @return the live time (in ns) of the clock in use
+     */
+    public static long now ()
+    {
+        return instance.nanoTime();
+    }
+
+    /**
+     * Records the current time as the timestamp of the tick that is beginning. Called by
+     * the robot loop at the start of every tick.
+     * @return the new tick timestamp (in ns)
+     */
+    public static long sampleTick ()
+    {
+        long t = now();
+        tickNanos = t;
+        ticking = true;
+        return t;
+    }
+
+    /**
+     * Gets the timestamp of the current tick, or the live time if no loop is sampling ticks.
+     * @return the tick time (in ns)
+     */
+    public static long tickTime ()
+    {
+        return ticking ? tickNanos : now();
+    }
+
+    /**
+     * Converts a duration to milliseconds.
+     * @param nanos the duration (in ns)
+     * @return the duration (in ms)
+     */
+    public static double toMillis (long nanos)
+    {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Converts a duration to seconds.
+     * @param nanos the duration (in ns)
+     * @return the duration (in s)
+     */
+    public static double toSeconds (long nanos)
+    {
+        return nanos / 1e9;
+    }
+}
@@ -34,7 +34,7 @@ public class ConsoleReader
         }
         catch (IOException e)
         {
-            e.printStackTrace();
+            Log.error(ConsoleReader.class, "Error reading the console", e);
         }
         return prevValue;
     }
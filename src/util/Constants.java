@@ -9,6 +9,7 @@ import java.net.SocketImpl;
  */
 public class Constants {
     public static final int SOCKET_PORT = 5512;
+    public static final int TELEMETRY_PORT = 5513;
     public static int PID_PRIMARY = 0;
     public static int PID_AUXILIARY = 1;
     public static int TIMEOUT = 10;
@@ -0,0 +1,430 @@
+package util;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Records what happens during a match to a file, for replaying with
+ * {@link simulation.Replay} or inspecting with {@link FlightRecording}: input edges, motor
+ * outputs, command events, socket messages, and once per tick the value of every sample
+ * (such as sensor positions).
+ *
+ * Every event is a fixed-size record of {@link #RECORD_SIZE} bytes, written straight into a
+ * memory-mapped file, so recording costs no system call and no allocation. Any thread may
+ * record at once; each claims its slot with a single atomic increment. The operating system
+ * writes the pages out in the background, so a recording survives the program crashing.
+ * Once the file is full, further records are dropped and counted.
+ *
+ * Record layout (little-endian):
+ * <pre>
+ * 0   long   time (ns, {@link Clock})
+ * 8   byte   kind ({@link Kind} ordinal + 1; 0 marks the end of the recording)
+ * 9   byte   code (edge level, control mode or command event)
+ * 10  short  channel (pin, or a channel named by a {@link Kind#NAME} record)
+ * 12  int    argument (text length, or demand type)
+ * 16  double value
+ * 24  double second value
+ * </pre>
+ * The UTF-8 text of a NAME or MESSAGE record follows it in as many whole records as it
+ * needs. The file begins with one record holding {@link #MAGIC}, the record size and the
+ * {@link Clock} and wall-clock times at which recording started.
+ *
+ * Recording should be started before any device is constructed, so that every input is
+ * recorded from its first edge.
+ */
+public class FlightRecorder
+{
+    /**
+     * The size of each record, in bytes.
+     */
+    public static final int RECORD_SIZE = 32;
+
+    /**
+     * The default size of the recording file, in bytes: room for two million records.
+     */
+    public static final long DEFAULT_CAPACITY = 64l << 20;
+
+    /**
+     * The bytes which begin every recording.
+     */
+    public static final long MAGIC = 0x3143455252495057l; // "WPIRREC1"
+
+    /**
+     * The longest text recorded for a name or message, in bytes.
+     */
+    public static final int MAX_TEXT_LENGTH = 4096;
+
+    /**
+     * Command event codes.
+     */
+    public static final int STARTED = 0, ENDED = 1, INTERRUPTED = 2;
+
+    /**
+     * The kinds of record.
+     */
+    public enum Kind
+    {
+        /**
+         * Names a channel; the name follows as text.
+         */
+        NAME,
+
+        /**
+         * The end of a robot loop tick; the value is the number of ticks completed before it.
+         */
+        TICK,
+
+        /**
+         * The level of a digital input when it was provisioned; the code is 1 if high.
+         */
+        INPUT,
+
+        /**
+         * A change in the level of a digital input; the code is 1 if high.
+         */
+        EDGE,
+
+        /**
+         * An output set on a motor controller; the code is the control mode, the value its
+         * magnitude, the argument the demand type (-1 if none) and the second value the demand.
+         */
+        OUTPUT,
+
+        /**
+         * The value of a sample at the end of a tick.
+         */
+        SAMPLE,
+
+        /**
+         * A command {@link #STARTED}, {@link #ENDED} or was {@link #INTERRUPTED}.
+         */
+        COMMAND,
+
+        /**
+         * A message received over the network; the message follows as text.
+         */
+        MESSAGE;
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    // channels are stored in a short; staying below 2^15 reads back the same signed or not
+    private static final int MAX_CHANNELS = Short.MAX_VALUE + 1;
+
+    /**
+     * A recording in progress. Writers take one reference to it and claim slots from its
+     * own counter, so a writer still holding a recording which has been replaced only ever
+     * writes within that recording's mapping.
+     */
+    private static final class Recording
+    {
+        private final MappedByteBuffer map;
+        private final long slots;
+        private final AtomicLong next;
+
+        private Recording (MappedByteBuffer map, long slots)
+        {
+            this.map = map;
+            this.slots = slots;
+            this.next = new AtomicLong(1);
+        }
+    }
+
+    private static volatile Recording recording;
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static final ConcurrentHashMap<String, Integer> channels = new ConcurrentHashMap<String, Integer>();
+    private static final List<String> names = new ArrayList<String>();
+    private static volatile int[] sampleChannels = new int[0];
+    private static volatile DoubleSupplier[] samples = new DoubleSupplier[0];
+
+    /**
+     * Starts recording to a file of the default capacity.
+     * @param path the file, which is replaced if it exists
+     * @return true if recording started; false if the file could not be created
+     */
+    public static boolean start (String path)
+    {
+        return start(path, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Starts recording to a file, stopping any recording in progress.
+     * @param path the file, which is replaced if it exists
+     * @param capacity the size of the file (in bytes, at most 2 GB), which bounds the length of
+     * the recording
+     * @return true if recording started; false if the file could not be created
+     */
+    public static synchronized boolean start (String path, long capacity)
+    {
+        stop();
+        capacity = Math.min(capacity, Integer.MAX_VALUE / RECORD_SIZE * RECORD_SIZE);
+        MappedByteBuffer map;
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw"))
+        {
+            file.setLength(0);
+            file.setLength(capacity);
+            map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        catch (IOException e)
+        {
+            Log.error(FlightRecorder.class, "Cannot create flight recording ", path, e);
+            return false;
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        map.putLong(0, MAGIC);
+        map.putInt(8, RECORD_SIZE);
+        map.putLong(16, Clock.now());
+        map.putLong(24, System.currentTimeMillis());
+        dropped.set(0);
+        recording = new Recording(map, capacity / RECORD_SIZE);
+        synchronized (names)
+        {
+            for (int i = 0; i < names.size(); i++)
+                writeText(Clock.now(), Kind.NAME, i, names.get(i));
+        }
+        return true;
+    }
+
+    /**
+     * Stops recording, writing the recording out to the file.
+     */
+    public static synchronized void stop ()
+    {
+        Recording r = recording;
+        if (r == null)
+            return;
+        recording = null;
+        r.map.force();
+    }
+
+    /**
+     * Determines whether a recording is in progress.
+     * @return true if recording; false otherwise
+     */
+    public static boolean isRecording ()
+    {
+        return recording != null;
+    }
+
+    /**
+     * Gets the number of records dropped because the file was full.
+     * @return the number of records
+     */
+    public static long getDroppedCount ()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Gets the channel with a given name, assigning one if the name has not been used before.
+     * Channels keep their numbers across recordings.
+     * @param name the name, such as "TalonSRX 3"
+     * @return the channel
+     */
+    public static int channel (String name)
+    {
+        Integer channel = channels.get(name);
+        if (channel != null)
+            return channel;
+        synchronized (names)
+        {
+            channel = channels.get(name);
+            if (channel != null)
+                return channel;
+            if (names.size() == MAX_CHANNELS)
+            {
+                Log.warn(FlightRecorder.class, "Too many flight recorder channels; sharing the last for ", name);
+                return MAX_CHANNELS - 1;
+            }
+            channel = names.size();
+            names.add(name);
+            channels.put(name, channel);
+            writeText(Clock.now(), Kind.NAME, channel, name);
+            return channel;
+        }
+    }
+
+    /**
+     * Adds a value to be recorded at the end of every tick.
+     * @param name the name of the value, such as "TalonSRX 3 position"
+     * @param sample reads the value; called on the robot loop thread
+     */
+    public static synchronized void addSample (String name, DoubleSupplier sample)
+    {
+        int channel = channel(name);
+        int[] updatedChannels = Arrays.copyOf(sampleChannels, sampleChannels.length + 1);
+        DoubleSupplier[] updated = Arrays.copyOf(samples, samples.length + 1);
+        updatedChannels[samples.length] = channel;
+        updated[samples.length] = sample;
+        sampleChannels = updatedChannels;
+        samples = updated;
+    }
+
+    /**
+     * Records the end of a robot loop tick, followed by the value of every sample.
+     * @param tick the number of ticks completed before this one
+     */
+    public static void recordTick (long tick)
+    {
+        Recording r = recording;
+        if (r == null)
+            return;
+        MappedByteBuffer map = r.map;
+        long time = Clock.now();
+        DoubleSupplier[] samples = FlightRecorder.samples;
+        int[] sampleChannels = FlightRecorder.sampleChannels;
+        int count = Math.min(samples.length, sampleChannels.length);
+        long slot = claim(r, 1 + count);
+        if (slot < 0)
+            return;
+        for (int i = 0; i < count; i++)
+        {
+            double value;
+            try
+            {
+                value = samples[i].getAsDouble();
+            }
+            catch (RuntimeException e)
+            {
+                value = Double.NaN;
+            }
+            write(map, slot + 1 + i, time, Kind.SAMPLE, 0, sampleChannels[i], 0, value, 0);
+        }
+        write(map, slot, time, Kind.TICK, 0, 0, 0, tick, 0);
+    }
+
+    /**
+     * Records the level of a digital input when it is provisioned.
+     * @param pin the pin number
+     * @param high whether the pin is high
+     */
+    public static void recordInput (int pin, boolean high)
+    {
+        record(Clock.now(), Kind.INPUT, high ? 1 : 0, pin, 0, 0, 0);
+    }
+
+    /**
+     * Records a change in the level of a digital input.
+     * @param pin the pin number
+     * @param high whether the pin is now high
+     * @param nanos the {@link Clock} time (in ns) of the change
+     */
+    public static void recordEdge (int pin, boolean high, long nanos)
+    {
+        record(nanos, Kind.EDGE, high ? 1 : 0, pin, 0, 0, 0);
+    }
+
+    /**
+     * Records an output set on a motor controller.
+     * @param channel the channel of the controller
+     * @param mode the control mode
+     * @param magnitude the magnitude of the output
+     * @param demandType the demand type, or -1 if none
+     * @param demand the magnitude of the demand
+     */
+    public static void recordOutput (int channel, int mode, double magnitude, int demandType, double demand)
+    {
+        record(Clock.now(), Kind.OUTPUT, mode, channel, demandType, magnitude, demand);
+    }
+
+    /**
+     * Records that a command started, ended or was interrupted.
+     * @param channel the channel of the command
+     * @param event {@link #STARTED}, {@link #ENDED} or {@link #INTERRUPTED}
+     */
+    public static void recordCommand (int channel, int event)
+    {
+        record(Clock.now(), Kind.COMMAND, event, channel, 0, 0, 0);
+    }
+
+    /**
+     * Records a message received over the network, at the time of the current tick so that
+     * it is replayed before the tick which read it.
+     * @param message the message
+     */
+    public static void recordMessage (String message)
+    {
+        if (recording != null)
+            writeText(Clock.tickTime(), Kind.MESSAGE, 0, message);
+    }
+
+    private static void record (long time, Kind kind, int code, int channel, int argument, double value,
+            double secondValue)
+    {
+        Recording r = recording;
+        if (r == null)
+            return;
+        long slot = claim(r, 1);
+        if (slot >= 0)
+            write(r.map, slot, time, kind, code, channel, argument, value, secondValue);
+    }
+
+    private static void writeText (long time, Kind kind, int channel, String text)
+    {
+        Recording r = recording;
+        if (r == null)
+            return;
+        MappedByteBuffer map = r.map;
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_TEXT_LENGTH);
+        long slot = claim(r, 1 + (length + RECORD_SIZE - 1) / RECORD_SIZE);
+        if (slot < 0)
+            return;
+        int offset = (int) ((slot + 1) * RECORD_SIZE);
+        for (int i = 0; i < length; i++)
+            map.put(offset + i, bytes[i]);
+        write(map, slot, time, kind, 0, channel, length, 0, 0);
+    }
+
+    /**
+     * Claims a run of consecutive slots in a recording.
+     * @return the first slot, or -1 if the file is full
+     */
+    private static long claim (Recording r, int count)
+    {
+        long slot = r.next.getAndAdd(count);
+        if (slot + count > r.slots)
+        {
+            dropped.addAndGet(count);
+            return -1;
+        }
+        return slot;
+    }
+
+    /**
+     * Writes a record, setting its kind last so that a reader never sees a record which is
+     * only partly written.
+     */
+    private static void write (MappedByteBuffer map, long slot, long time, Kind kind, int code, int channel,
+            int argument, double value, double secondValue)
+    {
+        int offset = (int) (slot * RECORD_SIZE);
+        map.putLong(offset, time);
+        map.put(offset + 9, (byte) code);
+        map.putShort(offset + 10, (short) channel);
+        map.putInt(offset + 12, argument);
+        map.putDouble(offset + 16, value);
+        map.putDouble(offset + 24, secondValue);
+        map.put(offset + 8, (byte) (kind.ordinal() + 1));
+    }
+
+    /**
+     * Gets the kind of record from its stored byte.
+     * @param stored the byte stored in the record
+     * @return the kind, or null if the byte marks the end of the recording or is not a kind
+     */
+    static Kind kindOf (int stored)
+    {
+        return stored > 0 && stored <= KINDS.length ? KINDS[stored - 1] : null;
+    }
+}
@@ -0,0 +1,197 @@
+package util;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a recording made by the {@link FlightRecorder}, one record at a time. The file is
+ * mapped rather than read, so a recording of any length is opened instantly, and stepping
+ * through it does not allocate.
+ *
+ * A reader starts before the first record; each call to {@link #next()} moves it to the
+ * following record, whose fields are then returned by the getters. Text following a record is
+ * skipped. Channel names are collected as their records are passed.
+ */
+public class FlightRecording
+{
+    private final MappedByteBuffer map;
+    private final long startTime;
+    private final long startMillis;
+    private final List<String> names;
+    private int position;
+    private int next;
+    private FlightRecorder.Kind kind;
+
+    /**
+     * Opens a recording.
+     * @param path the file
+     * @throws IOException if the file cannot be read or is not a recording
+     */
+    public FlightRecording (String path) throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r"))
+        {
+            map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        if (map.limit() < FlightRecorder.RECORD_SIZE || map.getLong(0) != FlightRecorder.MAGIC
+                || map.getInt(8) != FlightRecorder.RECORD_SIZE)
+            throw new IOException(path + " is not a flight recording.");
+        startTime = map.getLong(16);
+        startMillis = map.getLong(24);
+        names = new ArrayList<String>();
+        rewind();
+    }
+
+    /**
+     * Moves back to before the first record.
+     */
+    public void rewind ()
+    {
+        position = -1;
+        next = FlightRecorder.RECORD_SIZE;
+        kind = null;
+    }
+
+    /**
+     * Moves to the next record.
+     * @return true if there is one; false if the end of the recording has been reached
+     */
+    public boolean next ()
+    {
+        if (next + FlightRecorder.RECORD_SIZE > map.limit())
+            return false;
+        FlightRecorder.Kind k = FlightRecorder.kindOf(map.get(next + 8));
+        if (k == null)
+            return false;
+        position = next;
+        kind = k;
+        next += FlightRecorder.RECORD_SIZE;
+        if (k == FlightRecorder.Kind.NAME || k == FlightRecorder.Kind.MESSAGE)
+        {
+            next += (getArgument() + FlightRecorder.RECORD_SIZE - 1) / FlightRecorder.RECORD_SIZE
+                    * FlightRecorder.RECORD_SIZE;
+            if (k == FlightRecorder.Kind.NAME)
+            {
+                while (names.size() <= getChannel())
+                    names.add(null);
+                names.set(getChannel(), getText());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the {@link Clock} time at which recording started.
+     * @return the time (in ns)
+     */
+    public long getStartTime ()
+    {
+        return startTime;
+    }
+
+    /**
+     * Gets the wall-clock time at which recording started.
+     * @return the time (in ms since the epoch)
+     */
+    public long getStartMillis ()
+    {
+        return startMillis;
+    }
+
+    /**
+     * Gets the kind of the current record.
+     * @return the kind
+     */
+    public FlightRecorder.Kind getKind ()
+    {
+        return kind;
+    }
+
+    /**
+     * Gets the time of the current record.
+     * @return the {@link Clock} time (in ns)
+     */
+    public long getTime ()
+    {
+        return map.getLong(position);
+    }
+
+    /**
+     * Gets the code of the current record: the level of an input, the control mode of an
+     * output or the event of a command.
+     * @return the code
+     */
+    public int getCode ()
+    {
+        return map.get(position + 9);
+    }
+
+    /**
+     * Gets the channel of the current record: the pin of an input, or the channel of anything
+     * else.
+     * @return the channel
+     */
+    public int getChannel ()
+    {
+        return map.getShort(position + 10) & 0xFFFF;
+    }
+
+    /**
+     * Gets the argument of the current record: the length of its text, or the demand type of
+     * an output.
+     * @return the argument
+     */
+    public int getArgument ()
+    {
+        return map.getInt(position + 12);
+    }
+
+    /**
+     * Gets the value of the current record.
+     * @return the value
+     */
+    public double getValue ()
+    {
+        return map.getDouble(position + 16);
+    }
+
+    /**
+     * Gets the second value of the current record: the demand of an output.
+     * @return the value
+     */
+    public double getSecondValue ()
+    {
+        return map.getDouble(position + 24);
+    }
+
+    /**
+     * Gets the text following the current record.
+     * @return the text, or null if the record is not a name or message
+     */
+    public String getText ()
+    {
+        if (kind != FlightRecorder.Kind.NAME && kind != FlightRecorder.Kind.MESSAGE)
+            return null;
+        byte[] bytes = new byte[getArgument()];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = map.get(position + FlightRecorder.RECORD_SIZE + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the name of a channel, as of the current record.
+     * @param channel the channel
+     * @return the name, or null if it has not been named yet
+     */
+    public String getName (int channel)
+    {
+        return channel < names.size() ? names.get(channel) : null;
+    }
+}
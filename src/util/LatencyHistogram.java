@@ -0,0 +1,141 @@
+package util;
+
+/**
+ * A fixed-size histogram of nanosecond latencies. Recording a value never allocates,
+ * so a histogram can be updated from inside a control loop.
+ *
+ * Values are grouped into buckets which grow with the magnitude of the value (16 buckets
+ * per power of two), so any percentile is reported to within roughly 6% of its true value.
+ * Values above {@link #MAX_TRACKABLE_NANOS} are counted in the highest bucket.
+ *
+ * A histogram is not thread-safe; it should only be recorded into by one thread at a time.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    /**
+     * The largest latency (in ns) which is bucketed precisely, roughly 18 minutes.
+     */
+    public static final long MAX_TRACKABLE_NANOS = (1l << (MAX_EXPONENT + 1)) - 1;
+
+    private final long[] counts;
+    private long totalCount;
+    private long totalNanos;
+    private long maxNanos;
+
+    /**
+     * Constructs a new, empty LatencyHistogram.
+     */
+    public LatencyHistogram ()
+    {
+        counts = new long[BUCKETS];
+    }
+
+    /**
+     * Records a single latency.
+     * @param nanos the latency (in ns)
+     */
+    public void record (long nanos)
+    {
+        if (nanos < 0)
+            nanos = 0;
+        counts[bucketOf(nanos)]++;
+        totalCount++;
+        totalNanos += nanos;
+        if (nanos > maxNanos)
+            maxNanos = nanos;
+    }
+
+    /**
+     * Gets the latency below which the given fraction of recorded values fall.
+     * @param fraction the percentile to be found, as a fraction [0,1]
+     * @return the upper bound (in ns) of the bucket containing the percentile, or 0 if empty
+     */
+    public long getPercentile (double fraction)
+    {
+        if (totalCount == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(fraction * totalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+            if (seen >= target)
+                return Math.min(upperBoundOf(i), maxNanos);
+        }
+        return maxNanos;
+    }
+
+    /**
+     * Gets the median latency.
+     * @return the 50th percentile (in ns)
+     */
+    public long getMedian ()
+    {
+        return getPercentile(0.5);
+    }
+
+    /**
+     * Gets the largest recorded latency.
+     * @return the maximum (in ns)
+     */
+    public long getMax ()
+    {
+        return maxNanos;
+    }
+
+    /**
+     * Gets the mean latency.
+     * @return the mean (in ns), or 0 if empty
+     */
+    public double getMean ()
+    {
+        return totalCount == 0 ? 0 : (double) totalNanos / totalCount;
+    }
+
+    /**
+     * Gets the number of recorded values.
+     * @return the count
+     */
+    public long getCount ()
+    {
+        return totalCount;
+    }
+
+    /**
+     * Clears every recorded value.
+     */
+    public void reset ()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = 0;
+        totalCount = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+
+    private static int bucketOf (long nanos)
+    {
+        if (nanos < SUB_BUCKETS)
+            return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT)
+            return BUCKETS - 1;
+        int mantissa = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    private static long upperBoundOf (int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long mantissa = bucket % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((SUB_BUCKETS + mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,456 @@
+package util;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logs errors and status messages without making the thread which reports them wait for
+ * them to be written.
+ *
+ * Each message is copied into a preallocated ring of {@link #CAPACITY} entries and written
+ * by a background thread {@link #FLUSH_INTERVAL_MS} milliseconds later at most; formatting
+ * the message, its source and any stack trace happens on that thread. Status messages go to
+ * standard output and warnings and errors to standard error, unless {@link #setOutput} names
+ * another stream; the tinylog configuration of the robot project is left alone. A message
+ * reported while the ring is full is dropped and counted rather than waited for. Reporting a
+ * message allocates nothing.
+ *
+ * Warnings and errors are rate-limited: a message repeated from the same source (such as a
+ * command which throws every tick) with the same exception type is written at most once per
+ * {@link #REPEAT_INTERVAL_MS} milliseconds, and the number of times it was repeated in
+ * between is written once the interval has passed. The count is kept under a lock shared by
+ * the messages which hash to the same slot, held only to compare and count, never while
+ * writing. Status messages are always written and take no lock.
+ * Messages are compared by identity, so should be constants; anything which varies belongs
+ * in the value, which is appended when the message is written.
+ *
+ * @version Aug 20, 2018
+ */
+public class Log
+{
+    /**
+     * The number of messages which can wait to be written.
+     */
+    public static final int CAPACITY = 1024;
+
+    /**
+     * The longest time a message waits to be written, in milliseconds.
+     */
+    public static final long FLUSH_INTERVAL_MS = 10;
+
+    /**
+     * The shortest time between two writes of a repeated warning or error, in milliseconds.
+     */
+    public static final long REPEAT_INTERVAL_MS = 1000;
+
+    /**
+     * The severities of message.
+     */
+    public enum Level
+    {
+        INFO, WARN, ERROR;
+    }
+
+    private static final int MASK = CAPACITY - 1;
+    private static final int LIMITERS = 256;
+    private static final long REPEAT_INTERVAL_NANOS = REPEAT_INTERVAL_MS * 1000000;
+
+    private static final Entry[] ring = new Entry[CAPACITY];
+    private static final AtomicLong tail = new AtomicLong();
+    private static long head;
+
+    private static final Limiter[] limiters = new Limiter[LIMITERS];
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final AtomicLong suppressed = new AtomicLong();
+    private static long droppedReported;
+
+    private static final Object flushLock = new Object();
+    private static final SimpleDateFormat time = new SimpleDateFormat("HH:mm:ss.SSS");
+    private static final Date date = new Date();
+    private static final StringBuilder line = new StringBuilder();
+    private static volatile PrintStream output;
+
+    /**
+     * One message in the ring. The sequence number tells producers and the flusher
+     * whose turn it is to use the entry, as in a bounded multiple-producer queue.
+     */
+    private static class Entry
+    {
+        private volatile long sequence;
+        private Level level;
+        private Object source;
+        private String message;
+        private Object value;
+        private Throwable thrown;
+        private Thread thread;
+        private long timeMillis;
+        private int repeats;
+    }
+
+    /**
+     * The rate limit of one source, message and exception type.
+     */
+    private static class Limiter
+    {
+        private Object source;
+        private String message;
+        private Class<?> thrownType;
+        private Level level;
+        private long lastWritten;
+        private int repeats;
+    }
+
+    static
+    {
+        for (int i = 0; i < CAPACITY; i++)
+        {
+            ring[i] = new Entry();
+            ring[i].sequence = i;
+        }
+        for (int i = 0; i < LIMITERS; i++)
+            limiters[i] = new Limiter();
+        Thread flusher = new Thread(Log::run, "log");
+        flusher.setDaemon(true);
+        flusher.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-shutdown"));
+    }
+
+    /**
+     * Reports a status message.
+     * @param source the object reporting the message, whose class names it
+     * @param message the message
+     */
+    public static void info (Object source, String message)
+    {
+        offer(Level.INFO, source, message, null, null, 0);
+    }
+
+    /**
+     * Reports a status message followed by a value, which is converted to a String when the
+     * message is written.
+     * @param source the object reporting the message, whose class names it
+     * @param message the message
+     * @param value the value
+     */
+    public static void info (Object source, String message, Object value)
+    {
+        offer(Level.INFO, source, message, value, null, 0);
+    }
+
+    /**
+     * Reports a warning.
+     * @param source the object reporting the warning, whose class names it
+     * @param message the warning
+     */
+    public static void warn (Object source, String message)
+    {
+        limit(Level.WARN, source, message, null, null);
+    }
+
+    /**
+     * Reports a warning followed by a value, which is converted to a String when the warning
+     * is written. Repeats are counted regardless of the value.
+     * @param source the object reporting the warning, whose class names it
+     * @param message the warning
+     * @param value the value
+     */
+    public static void warn (Object source, String message, Object value)
+    {
+        limit(Level.WARN, source, message, value, null);
+    }
+
+    /**
+     * Reports a warning caused by an exception.
+     * @param source the object reporting the warning, whose class names it
+     * @param message the warning
+     * @param thrown the exception
+     */
+    public static void warn (Object source, String message, Throwable thrown)
+    {
+        limit(Level.WARN, source, message, null, thrown);
+    }
+
+    /**
+     * Reports a warning caused by an exception, with a value following the warning.
+     * @param source the object reporting the warning, whose class names it
+     * @param message the warning
+     * @param value the value
+     * @param thrown the exception
+     */
+    public static void warn (Object source, String message, Object value, Throwable thrown)
+    {
+        limit(Level.WARN, source, message, value, thrown);
+    }
+
+    /**
+     * Reports an error.
+     * @param source the object reporting the error, whose class names it
+     * @param message the error
+     */
+    public static void error (Object source, String message)
+    {
+        limit(Level.ERROR, source, message, null, null);
+    }
+
+    /**
+     * Reports an error followed by a value, which is converted to a String when the error is
+     * written. Repeats are counted regardless of the value.
+     * @param source the object reporting the error, whose class names it
+     * @param message the error
+     * @param value the value
+     */
+    public static void error (Object source, String message, Object value)
+    {
+        limit(Level.ERROR, source, message, value, null);
+    }
+
+    /**
+     * Reports an error caused by an exception.
+     * @param source the object reporting the error (such as the command which threw), whose
+     * class names it
+     * @param message the error
+     * @param thrown the exception
+     */
+    public static void error (Object source, String message, Throwable thrown)
+    {
+        limit(Level.ERROR, source, message, null, thrown);
+    }
+
+    /**
+     * Reports an error caused by an exception, with a value following the error.
+     * @param source the object reporting the error, whose class names it
+     * @param message the error
+     * @param value the value
+     * @param thrown the exception
+     */
+    public static void error (Object source, String message, Object value, Throwable thrown)
+    {
+        limit(Level.ERROR, source, message, value, thrown);
+    }
+
+    /**
+     * Writes every message reported so far, on the calling thread, such as before the
+     * program exits.
+     */
+    public static void flush ()
+    {
+        synchronized (flushLock)
+        {
+            drain();
+            sweep(Long.MAX_VALUE);
+            drain();
+        }
+    }
+
+    /**
+     * Sets the stream every message is written to.
+     * @param stream the stream, or null to write status messages to standard output and
+     * warnings and errors to standard error
+     */
+    public static void setOutput (PrintStream stream)
+    {
+        output = stream;
+    }
+
+    /**
+     * Gets the number of messages dropped because the ring was full.
+     * @return the number of messages
+     */
+    public static long getDroppedCount ()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Gets the number of repeated warnings and errors which were counted rather than written.
+     * @return the number of messages
+     */
+    public static long getSuppressedCount ()
+    {
+        return suppressed.get();
+    }
+
+    private static void limit (Level level, Object source, String message, Object value, Throwable thrown)
+    {
+        Class<?> thrownType = thrown != null ? thrown.getClass() : null;
+        int hash = System.identityHashCode(source) * 31 + System.identityHashCode(message);
+        if (thrownType != null)
+            hash = hash * 31 + System.identityHashCode(thrownType);
+        Limiter l = limiters[(hash ^ hash >>> 16) & (LIMITERS - 1)];
+        Level previousLevel = null;
+        Object previousSource = null;
+        String previousMessage = null;
+        int previousRepeats = 0;
+        synchronized (l)
+        {
+            long now = System.nanoTime();
+            boolean repeated = l.source == source && l.message == message && l.thrownType == thrownType;
+            if (repeated && now - l.lastWritten < REPEAT_INTERVAL_NANOS)
+            {
+                l.repeats++;
+                suppressed.incrementAndGet();
+                return;
+            }
+            if (l.repeats > 0)
+            {
+                previousLevel = l.level;
+                previousSource = l.source;
+                previousMessage = l.message;
+                previousRepeats = l.repeats;
+            }
+            l.source = source;
+            l.message = message;
+            l.thrownType = thrownType;
+            l.level = level;
+            l.lastWritten = now;
+            l.repeats = 0;
+        }
+        // the message this one displaced from the slot is written with its count first
+        if (previousRepeats > 0)
+            offer(previousLevel, previousSource, previousMessage, null, null, previousRepeats);
+        offer(level, source, message, value, thrown, 0);
+    }
+
+    private static boolean offer (Level level, Object source, String message, Object value, Throwable thrown,
+            int repeats)
+    {
+        Entry e;
+        long t;
+        while (true)
+        {
+            t = tail.get();
+            e = ring[(int) t & MASK];
+            long sequence = e.sequence;
+            if (sequence == t)
+            {
+                if (tail.compareAndSet(t, t + 1))
+                    break;
+            }
+            else if (sequence < t)
+            {
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+        e.level = level;
+        e.source = source;
+        e.message = message;
+        e.value = value;
+        e.thrown = thrown;
+        e.thread = Thread.currentThread();
+        e.timeMillis = System.currentTimeMillis();
+        e.repeats = repeats;
+        e.sequence = t + 1;
+        return true;
+    }
+
+    private static void run ()
+    {
+        long nextSweep = System.nanoTime();
+        while (true)
+        {
+            LockSupport.parkNanos(FLUSH_INTERVAL_MS * 1000000);
+            synchronized (flushLock)
+            {
+                drain();
+                long now = System.nanoTime();
+                if (now - nextSweep >= 0)
+                {
+                    sweep(now);
+                    nextSweep = now + REPEAT_INTERVAL_NANOS;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the count of every repeated message which has not been written for the repeat
+     * interval, so that a message which stops repeating is still accounted for.
+     */
+    private static void sweep (long now)
+    {
+        for (Limiter l : limiters)
+        {
+            Level level;
+            Object source;
+            String message;
+            int repeats;
+            synchronized (l)
+            {
+                if (l.repeats == 0 || (now != Long.MAX_VALUE && now - l.lastWritten < REPEAT_INTERVAL_NANOS))
+                    continue;
+                level = l.level;
+                source = l.source;
+                message = l.message;
+                repeats = l.repeats;
+                l.repeats = 0;
+                l.lastWritten = System.nanoTime();
+            }
+            // offered outside the lock so a reporter never waits on the ring
+            if (!offer(level, source, message, null, null, repeats))
+                synchronized (l)
+                {
+                    // the ring was full; keep the count for the next sweep if the slot still holds it
+                    if (l.source == source && l.message == message)
+                        l.repeats += repeats;
+                }
+        }
+    }
+
+    private static void drain ()
+    {
+        while (true)
+        {
+            Entry e = ring[(int) head & MASK];
+            if (e.sequence != head + 1)
+                break;
+            write(e);
+            e.source = null;
+            e.message = null;
+            e.value = null;
+            e.thrown = null;
+            e.thread = null;
+            e.sequence = head + CAPACITY;
+            head++;
+        }
+        long d = dropped.get();
+        if (d != droppedReported)
+        {
+            (output != null ? output : System.err).println("Log full; " + (d - droppedReported) + " messages dropped.");
+            droppedReported = d;
+        }
+    }
+
+    private static void write (Entry e)
+    {
+        line.setLength(0);
+        date.setTime(e.timeMillis);
+        line.append(time.format(date)).append(" [").append(e.thread.getName()).append("] ");
+        if (e.source != null)
+        {
+            Object s = e.source;
+            line.append(s instanceof Class ? ((Class<?>) s).getSimpleName()
+                    : s instanceof String ? s : s.getClass().getSimpleName()).append(": ");
+        }
+        line.append(e.message);
+        PrintStream out = output != null ? output : e.level == Level.INFO ? System.out : System.err;
+        try
+        {
+            if (e.value != null)
+                line.append(e.value);
+            if (e.repeats > 0)
+                line.append(" (repeated ").append(e.repeats).append(e.repeats == 1 ? " time)" : " times)");
+            out.println(line);
+            if (e.thrown != null)
+                e.thrown.printStackTrace(out);
+        }
+        catch (RuntimeException ex)
+        {
+            // a toString which throws must not stop the flusher
+            out.println(line);
+        }
+    }
+}
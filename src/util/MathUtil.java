@@ -18,7 +18,7 @@ public class MathUtil {
 	 * @return value, constrained between min and max
 	 */
 	public static double restrictValue(double value, double min, double max) {
-		return (value < min) ? min : Math.max(value, max);
+		return (value < min) ? min : Math.min(value, max);
 	}
 
 	/**
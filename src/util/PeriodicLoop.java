@@ -0,0 +1,245 @@
+package util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a loop at a fixed rate by scheduling each tick against an absolute
+ * {@link Clock} deadline rather than sleeping a fixed amount after each iteration. The time
+ * spent inside the loop body therefore does not add to the period, and the
+ * loop does not drift with load.
+ *
+ * If an iteration takes longer than the period, the tick is counted as an
+ * overrun and handled according to the {@link OverrunPolicy}.
+ *
+ * While waiting for the next tick, the loop can be woken from another thread with
+ * {@link #wake()}, in which case it runs its wake handler and goes back to waiting
+ * for the same deadline. This lets urgent work be handled between ticks without
+ * disturbing the rate of the loop.
+ */
+public class PeriodicLoop
+{
+    /**
+     * Determines what happens to ticks which were missed because an iteration
+     * ran past its deadline.
+     */
+    public enum OverrunPolicy
+    {
+        /**
+         * Missed ticks are run back-to-back until the loop is back on schedule,
+         * so the total number of ticks over a period of time stays constant.
+         */
+        CATCH_UP,
+
+        /**
+         * Missed ticks are dropped and the loop waits for the next deadline
+         * which is still in the future, so ticks never start less than a
+         * period apart.
+         */
+        SKIP;
+    }
+
+    private static final long MAX_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final long periodNanos;
+    private final OverrunPolicy policy;
+    private boolean reportOverruns;
+    private Runnable wakeHandler;
+    private volatile boolean woken;
+    private volatile Thread waiter;
+
+    private long nextDeadline;
+    private long ticks;
+    private long overruns;
+    private long skippedTicks;
+    private long maxLatenessNanos;
+
+    /**
+     * Constructs a new PeriodicLoop which catches up on missed ticks.
+     * @param periodMs the time (in ms) between the start of consecutive ticks
+     */
+    public PeriodicLoop (double periodMs)
+    {
+        this(periodMs, OverrunPolicy.CATCH_UP);
+    }
+
+    /**
+     * Constructs a new PeriodicLoop.
+     * @param periodMs the time (in ms) between the start of consecutive ticks
+     * @param policy the way in which missed ticks should be handled
+     */
+    public PeriodicLoop (double periodMs, OverrunPolicy policy)
+    {
+        if (periodMs <= 0)
+            throw new IllegalArgumentException("Loop period must be positive.");
+        this.periodNanos = (long) (periodMs * 1e6);
+        this.policy = policy;
+        this.reportOverruns = true;
+    }
+
+    /**
+     * Begins a new run of the loop, scheduling the first deadline one period from now.
+     */
+    public void start ()
+    {
+        nextDeadline = Clock.now() + periodNanos;
+    }
+
+    /**
+     * Blocks until the start of the next tick. Should be called once at the end of
+     * every iteration of the loop body.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void waitForNextTick () throws InterruptedException
+    {
+        ticks++;
+        long now = Clock.now();
+        long lateness = now - nextDeadline;
+
+        if (lateness > 0)
+        {
+            overruns++;
+            maxLatenessNanos = Math.max(maxLatenessNanos, lateness);
+            if (reportOverruns)
+                Log.warn(this, "Loop overrun; ms past deadline: ", lateness / 1e6);
+
+            if (policy == OverrunPolicy.CATCH_UP)
+            {
+                nextDeadline += periodNanos;
+                return;
+            }
+            // wait for the next deadline still in the future, so ticks stay a period apart
+            long missed = lateness / periodNanos + 1;
+            skippedTicks += missed;
+            nextDeadline += missed * periodNanos;
+        }
+
+        sleepUntil(nextDeadline);
+        nextDeadline += periodNanos;
+    }
+
+    /**
+     * Parks the current thread until the given deadline, spinning only for the last
+     * fraction of the wait where the scheduler cannot be trusted to wake on time, and
+     * running the wake handler whenever the loop is woken.
+     * @param deadline the absolute {@link Clock} time at which to return
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private void sleepUntil (long deadline) throws InterruptedException
+    {
+        Clock clock = Clock.getInstance();
+        if (clock.isVirtual())
+        {
+            if (woken)
+            {
+                woken = false;
+                if (wakeHandler != null)
+                    wakeHandler.run();
+            }
+            clock.sleepUntil(deadline);
+            return;
+        }
+        
+        waiter = Thread.currentThread();
+        try
+        {
+            long remaining;
+            while ((remaining = deadline - clock.nanoTime()) > 0)
+            {
+                if (woken)
+                {
+                    woken = false;
+                    if (wakeHandler != null)
+                        wakeHandler.run();
+                    continue;
+                }
+                if (remaining > MAX_SPIN_NANOS)
+                    LockSupport.parkNanos(this, remaining - MAX_SPIN_NANOS);
+                else
+                    Thread.yield();
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+            }
+        }
+        finally
+        {
+            waiter = null;
+        }
+    }
+
+    /**
+     * Wakes the loop if it is waiting for its next tick, causing the wake handler to be run
+     * on the loop thread before the loop resumes waiting. If the loop is not waiting, the
+     * handler runs as soon as the loop next begins to wait. Safe to call from any thread.
+     */
+    public void wake ()
+    {
+        woken = true;
+        Thread t = waiter;
+        if (t != null)
+            LockSupport.unpark(t);
+    }
+
+    /**
+     * Sets the action to be run on the loop thread whenever the loop is woken while waiting.
+     * @param wakeHandler the action, or null to ignore wakeups
+     */
+    public void setWakeHandler (Runnable wakeHandler)
+    {
+        this.wakeHandler = wakeHandler;
+    }
+
+    /**
+     * Sets whether a message should be printed every time a tick overruns its deadline.
+     * @param reportOverruns true if overruns should be printed; false otherwise
+     */
+    public void setReportOverruns (boolean reportOverruns)
+    {
+        this.reportOverruns = reportOverruns;
+    }
+
+    /**
+     * Gets the loop period.
+     * @return the time (in ms) between the start of consecutive ticks
+     */
+    public double getPeriodMs ()
+    {
+        return periodNanos / 1e6;
+    }
+
+    /**
+     * Gets the number of ticks completed.
+     * @return the number of times {@link #waitForNextTick()} has been called
+     */
+    public long getTickCount ()
+    {
+        return ticks;
+    }
+
+    /**
+     * Gets the number of ticks which finished past their deadline.
+     * @return the overrun count
+     */
+    public long getOverrunCount ()
+    {
+        return overruns;
+    }
+
+    /**
+     * Gets the number of ticks dropped under {@link OverrunPolicy#SKIP}.
+     * @return the skipped tick count
+     */
+    public long getSkippedTickCount ()
+    {
+        return skippedTicks;
+    }
+
+    /**
+     * Gets the largest amount by which a tick has missed its deadline.
+     * @return the maximum lateness (in ms)
+     */
+    public double getMaxLatenessMs ()
+    {
+        return maxLatenessNanos / 1e6;
+    }
+}
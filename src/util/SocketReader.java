@@ -1,51 +1,51 @@
 package util;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.ServerSocket;
-import java.net.Socket;
-
 /**
- * 
+ * Reads the messages sent to the robot over the network, one per line, through a shared
+ * {@link SocketServer} on {@link Constants#SOCKET_PORT}. Neither connecting nor reading ever
+ * blocks: clients may connect, disconnect and reconnect at any time.
+ *
  * @author Finn Frankis
  * @version Aug 14, 2018
  */
 public class SocketReader {
-    private static ServerSocket serverSocket;
-    private static Socket socket;
-    private static BufferedReader socketStream;
+    private static final SocketServer server = new SocketServer(Constants.SOCKET_PORT);
 
+    /**
+     * Starts listening for clients. Returns immediately rather than waiting for one to connect.
+     */
     public static void makeConnection () {
-        try {
-            System.out.println("INSTANTIATING SERVER SOCKETO");
-            serverSocket = new ServerSocket(Constants.SOCKET_PORT);
-            System.out.println("FORMING SOCKET CONNECTION");
-            SocketReader.socket = serverSocket.accept();
-            System.out.println("SOCKET CONNECTION FORMED");
-            socketStream = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        if (server.start())
+            Log.info(SocketReader.class, "Listening for socket connections on port ", Constants.SOCKET_PORT);
     }
 
+    /**
+     * Determines whether any client is connected.
+     * @return true if at least one client is connected; false otherwise
+     */
     public static boolean isConnected () {
-        return socket != null && socket.isBound();
+        return server.getClientCount() > 0;
     }
 
+    /**
+     * Takes the oldest message received which has not yet been read, recording it with the
+     * {@link FlightRecorder}. Never blocks.
+     * @return the message, or an empty String if none is waiting
+     */
     public static String getValue ()
     {
-        System.out.println("CHECKING FOR VAL");
-        try {
-            if (socketStream != null)
-                return socketStream.ready() ? socketStream.readLine() : "";
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        System.out.println("null stream");
-        return "";
+        String message = server.poll();
+        if (message == null)
+            return "";
+        FlightRecorder.recordMessage(message);
+        return message;
     }
 
+    /**
+     * Gets the server through which messages are received.
+     * @return the server
+     */
+    public static SocketServer getServer () {
+        return server;
+    }
 }
@@ -0,0 +1,395 @@
+package util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A server which accepts any number of clients at any time and collects the messages they
+ * send, one per line. All network I/O happens on the server's own thread through a
+ * non-blocking selector; complete messages are placed in a lock-free inbox which the robot
+ * loop drains with {@link #poll()}, which never blocks. A slow or disconnected client can
+ * therefore never stall a tick, and clients may disconnect and reconnect freely.
+ *
+ * The inbox holds at most {@link #INBOX_CAPACITY} messages; messages arriving while it is
+ * full are dropped and counted. Lines longer than {@link #MAX_MESSAGE_LENGTH} bytes are also
+ * dropped.
+ *
+ * A failure serving one client closes only that client's connection, and a failure to
+ * accept a connection (such as running out of file descriptors) is retried shortly after,
+ * so the server keeps listening for the whole match.
+ */
+public class SocketServer
+{
+    /**
+     * The largest number of messages held in the inbox.
+     */
+    public static final int INBOX_CAPACITY = 1024;
+
+    /**
+     * The longest message (in bytes, excluding the newline) which will be accepted.
+     */
+    public static final int MAX_MESSAGE_LENGTH = 4096;
+
+    /**
+     * The time (in ms) to wait before accepting again after a connection could not be accepted.
+     */
+    public static final long ACCEPT_RETRY_MS = 10;
+
+    private final int port;
+    private final Queue<String> inbox;
+    private final AtomicInteger inboxSize;
+    private final AtomicInteger clients;
+    private volatile Runnable messageHandler;
+    private volatile long dropped;
+    private volatile boolean running;
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread thread;
+
+    /**
+     * The partial message read so far from one client.
+     */
+    private static class Connection
+    {
+        private final ByteBuffer buffer = ByteBuffer.allocate(MAX_MESSAGE_LENGTH + 1);
+        private boolean overflowed;
+    }
+
+    /**
+     * Constructs a new SocketServer. The server does not listen until it is started.
+     * @param port the TCP port on which to listen
+     */
+    public SocketServer (int port)
+    {
+        this.port = port;
+        this.inbox = new ConcurrentLinkedQueue<String>();
+        this.inboxSize = new AtomicInteger();
+        this.clients = new AtomicInteger();
+    }
+
+    /**
+     * Begins listening and starts the server's thread. Returns immediately; clients are
+     * accepted whenever they connect.
+     * @return true if the server is listening; false if the port could not be opened
+     */
+    public synchronized boolean start ()
+    {
+        if (running)
+            return true;
+        try
+        {
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            server.configureBlocking(false);
+            server.socket().setReuseAddress(true);
+            server.bind(new InetSocketAddress(port));
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException e)
+        {
+            Log.error(this, "Cannot listen on port ", port, e);
+            closeQuietly();
+            return false;
+        }
+        running = true;
+        thread = new Thread(this::serve, "socket-server");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Disconnects every client, stops listening and waits for the server's thread to end.
+     */
+    public synchronized void stop ()
+    {
+        if (!running)
+            return;
+        running = false;
+        selector.wakeup();
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes the oldest message from the inbox. Never blocks.
+     * @return the message, or null if no message is waiting
+     */
+    public String poll ()
+    {
+        String message = inbox.poll();
+        if (message != null)
+            inboxSize.decrementAndGet();
+        return message;
+    }
+
+    /**
+     * Sets an action to be run on the server's thread whenever a message is placed in the
+     * inbox, such as signaling an event. The action must return quickly.
+     * @param handler the action, or null to remove it
+     */
+    public void setMessageHandler (Runnable handler)
+    {
+        messageHandler = handler;
+    }
+
+    /**
+     * Gets the number of clients currently connected.
+     * @return the number of clients
+     */
+    public int getClientCount ()
+    {
+        return clients.get();
+    }
+
+    /**
+     * Gets the number of messages dropped because the inbox was full or they were too long.
+     * @return the number of messages dropped since the server started
+     */
+    public long getDroppedCount ()
+    {
+        return dropped;
+    }
+
+    /**
+     * @return true if the server is listening; false otherwise
+     */
+    public boolean isRunning ()
+    {
+        return running;
+    }
+
+    private void serve ()
+    {
+        try
+        {
+            while (running)
+            {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        accept();
+                    else if (key.isReadable())
+                        serve(key);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            Log.error(this, "Socket server failed", e);
+        }
+        finally
+        {
+            running = false;
+            closeQuietly();
+        }
+    }
+
+    private void accept ()
+    {
+        SocketChannel channel = null;
+        try
+        {
+            channel = server.accept();
+            if (channel == null)
+                return;
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+            clients.incrementAndGet();
+        }
+        catch (IOException e)
+        {
+            Log.warn(this, "Cannot accept client", e);
+            if (channel != null)
+            {
+                try
+                {
+                    channel.close();
+                }
+                catch (IOException closing)
+                {
+                    Log.warn(this, "Error closing socket", closing);
+                }
+            }
+            else
+            {
+                // the connection is still pending, so wait rather than spin on it
+                try
+                {
+                    Thread.sleep(ACCEPT_RETRY_MS);
+                }
+                catch (InterruptedException interrupted)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads from one client, disconnecting it if anything goes wrong.
+     */
+    private void serve (SelectionKey key)
+    {
+        try
+        {
+            read(key);
+        }
+        catch (RuntimeException e)
+        {
+            Log.error(this, "Error serving client", e);
+            disconnect(key);
+        }
+    }
+
+    private void read (SelectionKey key)
+    {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer buffer = connection.buffer;
+        int read;
+        try
+        {
+            read = channel.read(buffer);
+        }
+        catch (IOException e)
+        {
+            read = -1; // reset by the client
+        }
+        if (read < 0)
+        {
+            disconnect(key);
+            return;
+        }
+
+        buffer.flip();
+        int start = 0;
+        for (int i = buffer.position(); i < buffer.limit(); i++)
+        {
+            if (buffer.get(i) != '\n')
+                continue;
+            if (connection.overflowed)
+                connection.overflowed = false; // the end of a line already dropped
+            else
+                receive(buffer, start, i);
+            start = i + 1;
+        }
+        buffer.position(start);
+        buffer.compact();
+        if (!buffer.hasRemaining())
+        {
+            // no newline in a full buffer, so drop the line
+            buffer.clear();
+            if (!connection.overflowed)
+                dropped++;
+            connection.overflowed = true;
+        }
+    }
+
+    private void receive (ByteBuffer buffer, int start, int end)
+    {
+        if (end > start && buffer.get(end - 1) == '\r')
+            end--;
+        if (inboxSize.get() >= INBOX_CAPACITY)
+        {
+            dropped++;
+            return;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buffer.get(start + i);
+        deliver(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Places a message in the inbox as if a client had sent it, such as when replaying a
+     * recorded match. Does not need the server to be running.
+     * @param message the message, without its newline
+     * @return true if the message was placed; false if the inbox was full
+     */
+    public boolean deliver (String message)
+    {
+        if (inboxSize.incrementAndGet() > INBOX_CAPACITY)
+        {
+            inboxSize.decrementAndGet();
+            dropped++;
+            return false;
+        }
+        inbox.add(message);
+        Runnable handler = messageHandler;
+        if (handler != null)
+        {
+            try
+            {
+                handler.run();
+            }
+            catch (RuntimeException e)
+            {
+                Log.error(handler, "Error in socket message handler", e);
+            }
+        }
+        return true;
+    }
+
+    private void disconnect (SelectionKey key)
+    {
+        if (!key.isValid())
+            return;
+        key.cancel();
+        try
+        {
+            key.channel().close();
+        }
+        catch (IOException e)
+        {
+            Log.warn(this, "Error closing socket", e);
+        }
+        clients.decrementAndGet();
+    }
+
+    private void closeQuietly ()
+    {
+        try
+        {
+            if (selector != null)
+            {
+                for (SelectionKey key : selector.keys())
+                    if (key.channel() instanceof SocketChannel)
+                    {
+                        key.channel().close();
+                        clients.decrementAndGet();
+                    }
+                selector.close();
+            }
+            if (server != null)
+                server.close();
+        }
+        catch (IOException e)
+        {
+            Log.warn(this, "Error closing socket", e);
+        }
+    }
+}
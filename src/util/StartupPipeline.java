@@ -0,0 +1,202 @@
+package util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs the stages required to bring up the robot concurrently, each on its own
+ * thread, and records how long each one took. A stage may depend on other stages,
+ * in which case it will not begin until all of them have completed; if any of them
+ * failed, the stage is skipped and counts as failed itself.
+ *
+ * Everything a stage does before it completes is visible to any thread which has
+ * returned from {@link #await()} or to any stage which depends on it.
+ */
+public class StartupPipeline
+{
+    /**
+     * Represents a single stage of the startup.
+     */
+    public static class Stage
+    {
+        private final String name;
+        private final Runnable action;
+        private final Stage[] prerequisites;
+        private final CountDownLatch done;
+        private volatile long startNanos;
+        private volatile long endNanos;
+        private volatile Throwable failure;
+        private volatile boolean skipped;
+
+        private Stage (String name, Runnable action, Stage[] prerequisites)
+        {
+            this.name = name;
+            this.action = action;
+            this.prerequisites = prerequisites;
+            this.done = new CountDownLatch(1);
+        }
+
+        private void run ()
+        {
+            try
+            {
+                for (Stage s : prerequisites)
+                {
+                    s.done.await();
+                    if (s.failure != null)
+                    {
+                        startNanos = System.nanoTime();
+                        skipped = true;
+                        failure = new IllegalStateException("Prerequisite \"" + s.name + "\" failed", s.failure);
+                        Log.error(StartupPipeline.class, "Startup stage skipped after a prerequisite failed: ", name);
+                        return;
+                    }
+                }
+                startNanos = System.nanoTime();
+                action.run();
+            }
+            catch (Throwable t)
+            {
+                failure = t;
+                Log.error(StartupPipeline.class, "Startup stage failed: ", name, t);
+            }
+            finally
+            {
+                endNanos = System.nanoTime();
+                done.countDown();
+            }
+        }
+
+        /**
+         * Gets the name of the stage.
+         * @return the name
+         */
+        public String getName ()
+        {
+            return name;
+        }
+
+        /**
+         * Gets the time the stage spent running, excluding any time spent waiting on prerequisites.
+         * @return the duration (in ms)
+         */
+        public double getDurationMs ()
+        {
+            return (endNanos - startNanos) / 1e6;
+        }
+
+        /**
+         * Determines whether the stage was skipped because a prerequisite failed.
+         * @return true if the stage never ran; false otherwise
+         */
+        public boolean isSkipped ()
+        {
+            return skipped;
+        }
+
+        /**
+         * Gets the exception which caused the stage to fail. For a skipped stage, this wraps
+         * the failure of the prerequisite.
+         * @return the failure, or null if the stage completed normally
+         */
+        public Throwable getFailure ()
+        {
+            return failure;
+        }
+    }
+
+    private final List<Stage> stages;
+    private long startNanos;
+    private long endNanos;
+    private boolean started;
+
+    /**
+     * Constructs a new, empty StartupPipeline.
+     */
+    public StartupPipeline ()
+    {
+        stages = new ArrayList<Stage>();
+    }
+
+    /**
+     * Adds a stage to the pipeline.
+     * @param name the name of the stage, used when reporting
+     * @param action the work to be performed
+     * @param prerequisites the stages which must complete before this stage begins
+     * @return the new stage
+     */
+    public Stage addStage (String name, Runnable action, Stage... prerequisites)
+    {
+        if (started)
+            throw new IllegalStateException("Cannot add stages once the pipeline has started.");
+        Stage s = new Stage(name, action, prerequisites);
+        stages.add(s);
+        return s;
+    }
+
+    /**
+     * Begins running every stage.
+     */
+    public void start ()
+    {
+        if (started)
+            throw new IllegalStateException("Pipeline has already been started.");
+        started = true;
+        startNanos = System.nanoTime();
+        for (final Stage s : stages)
+        {
+            Thread t = new Thread(s::run, "startup-" + s.name);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Waits for every stage to complete.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void await () throws InterruptedException
+    {
+        for (Stage s : stages)
+            s.done.await();
+        if (endNanos == 0)
+            endNanos = System.nanoTime();
+    }
+
+    /**
+     * Determines whether any stage failed.
+     * @return true if at least one stage threw an exception; false otherwise
+     */
+    public boolean hasFailures ()
+    {
+        for (Stage s : stages)
+            if (s.failure != null)
+                return true;
+        return false;
+    }
+
+    /**
+     * Prints the time spent in each stage, the total time spent in the pipeline, and the time
+     * since the JVM was launched. Should only be called after {@link #await()}.
+     */
+    public void printReport ()
+    {
+        System.out.println("Startup time breakdown:");
+        for (Stage s : stages)
+            System.out.println("    " + s.name + ": " + s.getDurationMs() + " ms"
+                    + (s.skipped ? " (SKIPPED)" : s.failure != null ? " (FAILED)" : ""));
+        System.out.println("    total (concurrent): " + (endNanos - startNanos) / 1e6 + " ms");
+        System.out.println("    since JVM launch: " + getUptimeMs() + " ms");
+    }
+
+    /**
+     * Gets the time since the JVM was launched.
+     * @return the JVM uptime (in ms)
+     */
+    public static long getUptimeMs ()
+    {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+}
@@ -0,0 +1,28 @@
+package util;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A clock backed by {@link System#nanoTime()}, which is monotonic and unaffected by
+ * changes to the wall clock (such as NTP adjustments).
+ */
+public class SystemClock extends Clock
+{
+    @Override
+    public long nanoTime ()
+    {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void sleepUntil (long deadline) throws InterruptedException
+    {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0)
+        {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package util;
+
+/**
+ * A clock which only moves when told to. Sleeping on a virtual clock advances it to
+ * the deadline immediately, so code driven by it (such as the robot loop) runs as
+ * fast as the processor allows while still observing consistent time steps.
+ *
+ * Intended for tests and simulation, where it makes time-dependent behaviour
+ * reproducible.
+ */
+public class VirtualClock extends Clock
+{
+    private volatile long now;
+
+    /**
+     * Constructs a new VirtualClock starting at time 0.
+     */
+    public VirtualClock ()
+    {
+        this(0);
+    }
+
+    /**
+     * Constructs a new VirtualClock.
+     * @param start the initial time (in ns)
+     */
+    public VirtualClock (long start)
+    {
+        now = start;
+    }
+
+    @Override
+    public long nanoTime ()
+    {
+        return now;
+    }
+
+    @Override
+    public void sleepUntil (long deadline)
+    {
+        advanceTo(deadline);
+    }
+
+    @Override
+    public boolean isVirtual ()
+    {
+        return true;
+    }
+
+    /**
+     * Moves the clock forward by a given amount.
+     * @param nanos the amount (in ns) to advance
+     */
+    public void advance (long nanos)
+    {
+        advanceTo(now + nanos);
+    }
+
+    /**
+     * Moves the clock forward to a given time. Has no effect if the time is in the past.
+     * @param time the new time (in ns)
+     */
+    public synchronized void advanceTo (long time)
+    {
+        if (time > now)
+            now = time;
+    }
+}